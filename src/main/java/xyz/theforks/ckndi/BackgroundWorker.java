@@ -0,0 +1,77 @@
+package xyz.theforks.ckndi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A named daemon thread that does work off the engine thread.  Requests passed
+ * to submit() while one is being handled are coalesced, only the most recent is
+ * handled next.  Tasks passed to execute() always run, in order.
+ */
+public class BackgroundWorker<T> {
+
+    private final ExecutorService executor;
+    private final AtomicReference<T> pending = new AtomicReference<>();
+    private final Consumer<T> handler;
+
+    /**
+     * A worker that only runs tasks passed to execute().
+     */
+    public BackgroundWorker(String threadName) {
+        this(threadName, null);
+    }
+
+    public BackgroundWorker(String threadName, Consumer<T> handler) {
+        this.handler = handler;
+        executor = Executors.newSingleThreadExecutor((r) -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a request, replacing any queued request that hasn't started yet.
+     */
+    public void submit(T request) {
+        if (pending.getAndSet(request) == null && !execute(this::handlePending)) {
+            pending.set(null);
+        }
+    }
+
+    /**
+     * Run a task on the worker thread after anything already queued.  Returns
+     * false if the worker has been disposed.
+     */
+    public boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Disposed
+            return false;
+        }
+    }
+
+    /**
+     * Stop the worker.  If interrupt is set, work in progress is interrupted,
+     * otherwise queued tasks are run first.
+     */
+    public void dispose(boolean interrupt) {
+        if (interrupt) {
+            executor.shutdownNow();
+        } else {
+            executor.shutdown();
+        }
+    }
+
+    private void handlePending() {
+        T request = pending.getAndSet(null);
+        if (request != null) {
+            handler.accept(request);
+        }
+    }
+}
@@ -2,8 +2,10 @@ package xyz.theforks.ckndi;
 
 import heronarts.glx.ui.UI2dContainer;
 import heronarts.glx.ui.component.UIButton;
+import heronarts.glx.ui.component.UIDropMenu;
 import heronarts.glx.ui.component.UIKnob;
 import heronarts.glx.ui.component.UILabel;
+import heronarts.glx.ui.component.UITextBox;
 import heronarts.glx.ui.vg.VGraphics;
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
@@ -16,9 +18,8 @@ import heronarts.lx.studio.ui.device.UIDevice;
 import heronarts.lx.studio.ui.device.UIDeviceControls;
 import me.walkerknapp.devolay.*;
 
-import java.awt.image.BufferedImage;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,8 +31,19 @@ import java.util.List;
 @LXComponentName("CkNDI")
 public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
 
+    public static final int MAX_SOURCES = 4;
+
     public final StringParameter ndiSourceName = new StringParameter("NDI Source", "")
             .setDescription("Selected NDI source name");
+    public final StringParameter ndiSource2 = new StringParameter("NDI Source 2", "")
+            .setDescription("NDI source for the second mosaic cell");
+    public final StringParameter ndiSource3 = new StringParameter("NDI Source 3", "")
+            .setDescription("NDI source for the third mosaic cell");
+    public final StringParameter ndiSource4 = new StringParameter("NDI Source 4", "")
+            .setDescription("NDI source for the fourth mosaic cell");
+    public final EnumParameter<MosaicLayout> mosaic =
+            new EnumParameter<MosaicLayout>("Mosaic", MosaicLayout.SINGLE)
+            .setDescription("Split the model into cells each showing a different source");
 
     public final BooleanParameter autoConnect = new BooleanParameter("Auto Connect", true)
             .setDescription("Automatically connect when pattern becomes active");
@@ -53,16 +65,63 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
             .setDescription("Tile Y");
     public final BooleanParameter flipHorizontal = new BooleanParameter("FlipX", false);
     public final BooleanParameter flipVertical = new BooleanParameter("FlipY", false);
+    public final EnumParameter<UVProjection> projection =
+            new EnumParameter<UVProjection>("Projection", UVProjection.PLANAR)
+            .setDescription("How model points are projected onto the video");
     public final BooleanParameter antialias = new BooleanParameter("Antialias", false)
             .setDescription("Enable bilinear interpolation for smoother rendering");
+    public final BooleanParameter interpolate = new BooleanParameter("Interpolate", false)
+            .setDescription("Blend between the two most recent frames when the engine runs faster than the source");
+
+    // Frame sync
+    public final BooleanParameter frameSync = new BooleanParameter("Sync", false)
+            .setDescription("Pick frames by source timestamp against the wall clock so every instance shows the same frame");
+    public final CompoundParameter syncDelay = new CompoundParameter("Delay", 40, 0, 100)
+            .setUnits(LXParameter.Units.MILLISECONDS)
+            .setDescription("How far behind the wall clock synchronized frames are shown");
+
+    // Color grading
+    public final StringParameter lutFile = new StringParameter("LUT", "")
+            .setDescription("Path to a 1D or 3D .cube LUT applied to sampled colors");
+    public final CompoundParameter gamma = new CompoundParameter("Gamma", 1, 0.5, 3)
+            .setDescription("Gamma exponent applied after the LUT");
+    public final CompoundParameter redGain = new CompoundParameter("Red", 1, 0, 1)
+            .setDescription("Red white balance gain");
+    public final CompoundParameter greenGain = new CompoundParameter("Green", 1, 0, 1)
+            .setDescription("Green white balance gain");
+    public final CompoundParameter blueGain = new CompoundParameter("Blue", 1, 0, 1)
+            .setDescription("Blue white balance gain");
+
+    // Preview output
+    public final BooleanParameter previewOut = new BooleanParameter("NDI Out", false)
+            .setDescription("Publish the rendered LED colors as an NDI video stream");
+    public final CompoundParameter previewFps = new CompoundParameter("Out FPS", 30, 1, 60)
+            .setDescription("Maximum frame rate of the NDI preview output");
+    public final DiscreteParameter previewWidth = new DiscreteParameter("Out W", 640, 16, 1921)
+            .setDescription("Width of the NDI preview output");
+    public final DiscreteParameter previewHeight = new DiscreteParameter("Out H", 360, 16, 1081)
+            .setDescription("Height of the NDI preview output");
+
+    // Adaptive quality
+    public final BooleanParameter governor = new BooleanParameter("Governor", false)
+            .setDescription("Lower render quality automatically when rendering exceeds the budget");
+    public final CompoundParameter budgetMs = new CompoundParameter("Budget", 4, 0.5, 20)
+            .setUnits(LXParameter.Units.MILLISECONDS)
+            .setDescription("Render time budget per frame for the quality governor");
+    // Reflects the governor's current level, it is not registered so it is neither
+    // saved nor modulatable.
+    public final EnumParameter<QualityGovernor.Level> quality =
+            new EnumParameter<QualityGovernor.Level>("Quality", QualityGovernor.Level.FULL)
+            .setDescription("Current render quality chosen by the governor (read-only)");
 
     // NDI components
     private DevolayFinder finder;
-    private DevolayReceiver receiver;
     private List<DevolaySource> availableSources = new ArrayList<>();
-    private BufferedImage currentFrame;
-    private Thread ndiThread;
-    private volatile boolean running = false;
+    // Source name parameters by mosaic cell
+    private final StringParameter[] sourceNames = { ndiSourceName, ndiSource2, ndiSource3, ndiSource4 };
+    private final VideoInput[] inputs = new VideoInput[MAX_SOURCES];
+    // Frames being rendered this tick, by mosaic cell
+    private final VideoFrame[] frames = new VideoFrame[MAX_SOURCES];
     
     // Initialization retry mechanism
     private Thread initializationThread;
@@ -72,19 +131,79 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
     private static final long RETRY_DELAY_MS = 1000; // 1 second between retries
 
     // UI components
-    private UIButton sourceSelectButton;
+    private final UIButton[] sourceSelectButtons = new UIButton[MAX_SOURCES];
     private UIButton refreshButton;
-    private int currentSourceIndex = -1;
+    private UILabel qualityLabel;
 
     // UV mapping
-    private List<UVPoint> uvPoints = null;
-    private boolean uvsNeedUpdate = true;
+    // UVs are computed in the background, uvMap is the map currently being rendered
+    private final UVMapper uvMapper = new UVMapper("CkNDI-UV");
+    private UVMap uvMap = null;
+    private UVMap staleUVMap = null;
+    private boolean uvsNeedUpdate = false;
+
+    // Normalized source image coordinates for each UV point after the mapping
+    // parameters are applied, in the same order as uvMap.
+    private float[] sampleX = null;
+    private float[] sampleY = null;
+    // Mosaic cell each map entry samples from, and the same by point index
+    private byte[] sampleSource = null;
+    private byte[] pointSource = null;
+    private boolean mappingNeedsUpdate = true;
+    // Normalized {x0, y0, x1, y1} bounds of the region of each source that the
+    // current mapping samples.  Null means the whole frame.
+    private final float[][] sourceRegions = new float[MAX_SOURCES][];
+
+    // Temporal interpolation.  Each new frame is sampled once into nextColors,
+    // and every engine tick blends prevColors -> nextColors based on how far we
+    // are into the interval between the two frames' arrival times.
+    private int[] prevColors = null;
+    private int[] nextColors = null;
+    private final VideoFrame[] interpFrom = new VideoFrame[MAX_SOURCES];
+    private final VideoFrame[] interpTo = new VideoFrame[MAX_SOURCES];
+    // Blend position of each source this tick, 0..256
+    private final int[] blendAmount = new int[MAX_SOURCES];
+    // Gaps longer than this (e.g. source reconnect) snap to the newest frame
+    private static final long MAX_INTERP_INTERVAL_NS = 250_000_000L;
+
+    // Set when held samples no longer match the mapping, map, LUT or sampling
+    // mode, forcing the next render to sample every point
+    private boolean samplesNeedResample = false;
+    private boolean lastBilinear = false;
+
+    // Dirty tile tracking.  Only points in tiles whose checksum changed since the
+    // frame last sampled from each source are sampled again.  Tracked for each
+    // interleave half, a full render updates both.
+    private final VideoFrame[][] renderedFrames = new VideoFrame[2][MAX_SOURCES];
+    private final boolean[][] renderedValid = new boolean[2][MAX_SOURCES];
+    private final boolean[] skipSource = new boolean[MAX_SOURCES];
+    // Tiles to sample for each source, null to sample every point
+    private final boolean[][] dirtyTiles = new boolean[MAX_SOURCES][];
+    private final boolean[][] dirtyTileBuffers = new boolean[MAX_SOURCES][];
+    // Tile each map entry samples, valid for frames of the size held per source
+    private int[] sampleTile = null;
+    private final int[] sampleTileWidth = new int[MAX_SOURCES];
+    private final int[] sampleTileHeight = new int[MAX_SOURCES];
+
+    // Compiled color grading, null when grading is off
+    private final ColorGrader colorGrader = new ColorGrader("CkNDI-LUT");
+    private ColorLUT colorLUT = null;
+
+    private NDIPreviewSender previewSender = null;
+
+    private final QualityGovernor qualityGovernor = new QualityGovernor();
+    private long tickCount = 0;
+    private int interleavePhase = 0;
 
     public final boolean VERBOSE = false;
 
     public CkNDI(LX lx) {
         super(lx);
         addParameter("ndiSource", this.ndiSourceName);
+        addParameter("ndiSource2", this.ndiSource2);
+        addParameter("ndiSource3", this.ndiSource3);
+        addParameter("ndiSource4", this.ndiSource4);
+        addParameter("mosaic", this.mosaic);
         addParameter("autoConnect", this.autoConnect);
         addParameter("uOff", this.uOffset);
         addParameter("vOff", this.vOffset);
@@ -96,11 +215,29 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         addParameter("tileX", this.tileX);
         addParameter("tileY", this.tileY);
         addParameter("antialias", this.antialias);
+        addParameter("projection", this.projection);
+        addParameter("interpolate", this.interpolate);
+        addParameter("frameSync", this.frameSync);
+        addParameter("syncDelay", this.syncDelay);
+        addParameter("lutFile", this.lutFile);
+        addParameter("gamma", this.gamma);
+        addParameter("redGain", this.redGain);
+        addParameter("greenGain", this.greenGain);
+        addParameter("blueGain", this.blueGain);
+        addParameter("previewOut", this.previewOut);
+        addParameter("previewFps", this.previewFps);
+        addParameter("previewWidth", this.previewWidth);
+        addParameter("previewHeight", this.previewHeight);
+        addParameter("governor", this.governor);
+        addParameter("budget", this.budgetMs);
+        quality.addListener((p) -> updateQualityLabel());
 
         // Initialize devolay
         initializeDevolay();
+        uvMapper.requestUpdate(model, projection.getEnum());
+        requestColorGrade();
         model.addListener((p)-> {
-           computeUVs();
+           uvMapper.requestUpdate(model, projection.getEnum());
         });
     }
 
@@ -122,6 +259,18 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         }
     }
 
+    private void requestColorGrade() {
+        colorGrader.requestUpdate(lutFile.getString(), gamma.getValuef(),
+                redGain.getValuef(), greenGain.getValuef(), blueGain.getValuef());
+    }
+
+    private void stopPreview() {
+        if (previewSender != null) {
+            previewSender.dispose();
+            previewSender = null;
+        }
+    }
+
     private void refreshNDISources() {
         if (finder == null)
             return;
@@ -148,16 +297,27 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         }
     }
 
-    private void startNDIReceiver() {
-        if (ndiSourceName.getString().isEmpty()) {
+    private void startInput(int slot) {
+        StringParameter sourceName = sourceNames[slot];
+        if (sourceName.getString().isEmpty()) {
             if (VERBOSE)
                 LX.log("No NDI source selected");
             return;
         }
 
+        if (ShmInput.isShmSource(sourceName.getString())) {
+            // Shared memory inputs wait for their file, there is nothing to discover
+            ShmInput input = new ShmInput(sourceName.getString());
+            input.setSourceRegion(sourceRegions[slot]);
+            input.setHistorySpan(syncHistorySpan());
+            input.start();
+            inputs[slot] = input;
+            return;
+        }
+
         // Find the selected source - refresh sources first if not found
         DevolaySource selectedSource = null;
-        String targetSourceName = ndiSourceName.getString();
+        String targetSourceName = sourceName.getString();
 
         // First try to find in current list
         for (DevolaySource source : availableSources) {
@@ -190,19 +350,11 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
             if (VERBOSE)
                 LX.log("Starting NDI receiver for: " + selectedSource.getSourceName());
 
-            // Create receiver with default settings (like in example)
-            receiver = new DevolayReceiver(DevolayReceiver.ColorFormat.BGRX_BGRA,
-                    DevolayReceiver.RECEIVE_BANDWIDTH_HIGHEST,
-                    true, "CkNDI");
-
-            // Connect to the selected source (like in example)
-            receiver.connect(selectedSource);
-
-            // Start receiving thread
-            running = true;
-            ndiThread = new Thread(this::ndiReceiveLoop);
-            ndiThread.setName("NDI-Receiver-" + selectedSource.getSourceName());
-            ndiThread.start();
+            NDIInput input = new NDIInput(selectedSource);
+            input.setSourceRegion(sourceRegions[slot]);
+            input.setHistorySpan(syncHistorySpan());
+            input.start();
+            inputs[slot] = input;
 
             if (VERBOSE)
                 LX.log("NDI receiver started successfully");
@@ -212,33 +364,23 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         }
     }
 
-    private void stopNDIReceiver() {
-        try {
-            running = false;
-
-            if (ndiThread != null) {
-                try {
-                    ndiThread.interrupt();
-                    ndiThread.join(1); // Wait up to 1 second
-                } catch (InterruptedException e) {
-                    // Ignore
-                }
-                ndiThread = null;
+    private void startInputs() {
+        int sourceCount = mosaic.getEnum().sources();
+        for (int slot = 0; slot < sourceCount; slot++) {
+            if (inputs[slot] == null) {
+                startInput(slot);
             }
+        }
+    }
 
-            LX.log("Closing receiver");
-            if (receiver != null) {
-                try {
-                    //receiver.connect(null); // Disconnect like in example
-                    //receiver = null;
-                    receiver.close();
-                } catch (Throwable e) {
-                    LX.error(e, "Error closing NDI receiver");
-                }
-                receiver = null;
+    private void stopInput(int slot) {
+        try {
+            VideoInput input = inputs[slot];
+            inputs[slot] = null;
+            if (input != null) {
+                LX.log("Closing receiver");
+                input.stop();
             }
-
-            currentFrame = null;
             if (VERBOSE)
                 LX.log("NDI receiver stopped");
         } catch (Throwable t) {
@@ -246,150 +388,87 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         }
     }
 
-    private void ndiReceiveLoop() {
-        DevolayVideoFrame videoFrame = new DevolayVideoFrame();
-        long frameCount = 0;
-        long lastLogTime = System.currentTimeMillis();
-
-        LX.log("NDI receive loop started, waiting for frames...");
-
-        while (running && !Thread.currentThread().isInterrupted()) {
-            try {
-                // Use receiveCapture like in the example (with 0 timeout for non-blocking)
-                DevolayFrameType frameType = receiver.receiveCapture(videoFrame, null, null, 5);
-
-                if (!running) break; 
-
-                if (frameType == DevolayFrameType.VIDEO) {
-                    frameCount++;
-                    long currentTime = System.currentTimeMillis();
-
-                    // Log every 30 frames or every 5 seconds
-                    if (frameCount % 30 == 0 || (currentTime - lastLogTime > 5000)) {
-                        if (VERBOSE) {
-                            LX.log("Received NDI video frame #" + frameCount + ", resolution: " +
-                                    videoFrame.getXResolution() + "x" + videoFrame.getYResolution());
-                        }
-                        lastLogTime = currentTime;
-                    }
-
-                    processVideoFrame(videoFrame);
-                } else if (frameType == DevolayFrameType.NONE) {
-                    // No frame available - add small delay to avoid busy loop
-                    if (frameCount == 0) {
-                        // Log only if we haven't received any frames yet
-                        long currentTime = System.currentTimeMillis();
-                        if (currentTime - lastLogTime > 2000) {
-                            LX.log("Still waiting for NDI frames (no data available)...");
-                            lastLogTime = currentTime;
-                        }
-                    }
-                    Thread.sleep(10); // Small delay to prevent busy waiting
-                } else {
-                    // Connection lost or other error
-                    LX.log("NDI receive unexpected frame type: " + frameType);
-                }
-            } catch (IllegalArgumentException e) {
-                if (e.getMessage() != null && e.getMessage().contains("Unknown frame type id")) {
-                    // Devolay doesn't recognize this frame type - continue receiving
-                    if (VERBOSE)
-                        LX.log("Devolay unknown frame type (continuing): " + e.getMessage());
-                    // Thread.sleep(1); // Small delay to prevent tight loop
-                } else {
-                    if (running) {
-                        LX.error(e, "IllegalArgumentException in NDI receive loop");
-                    }
-                    break;
-                }
-            } catch (Exception e) {
-                if (running) {
-                    LX.error(e, "Error in NDI receive loop");
-                }
-                break;
-            }
+    private void stopInputs() {
+        for (int slot = 0; slot < MAX_SOURCES; slot++) {
+            stopInput(slot);
         }
+    }
 
-        videoFrame.close();
-        LX.log("NDI receive loop exited. Total frames received: " + frameCount);
+    /**
+     * How far back inputs hold frames.  With frame sync the renderer picks
+     * frames up to Delay behind the newest, without it only the newest is used.
+     */
+    private long syncHistorySpan() {
+        return frameSync.isOn() ? (long) syncDelay.getValue() * VideoFrame.TICKS_PER_MS : 0;
     }
 
-    private void processVideoFrame(DevolayVideoFrame videoFrame) {
-        try {
-            int width = videoFrame.getXResolution();
-            int height = videoFrame.getYResolution();
-            boolean hasAlpha = videoFrame.getFourCCType() == DevolayFrameFourCCType.BGRA;
-
-            if (width <= 0 || height <= 0)
-                return;
-
-            // Get the frame data
-            ByteBuffer frameData = videoFrame.getData();
-            if (frameData == null)
-                return;
-
-            // Convert to BufferedImage
-            BufferedImage image;
-            if (!hasAlpha) image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            else image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-            // Convert BGRX/BGRA to RGB/ARGB
-            byte[] pixelData = new byte[frameData.remaining()];
-            frameData.get(pixelData);
-
-            int pixelIndex = 0;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if (pixelIndex + 3 < pixelData.length) {
-                        int b = pixelData[pixelIndex] & 0xFF;
-                        int g = pixelData[pixelIndex + 1] & 0xFF;
-                        int r = pixelData[pixelIndex + 2] & 0xFF;
-                        int a = pixelData[pixelIndex + 3] & 0xFF;
-
-                        int rgb;
-                        if (hasAlpha) {
-                            // BGRA format - include alpha channel
-                            rgb = (a << 24) | (r << 16) | (g << 8) | b;
-                        } else {
-                            // BGRX format - ignore X channel, set alpha to opaque
-                            rgb = (0xFF << 24) | (r << 16) | (g << 8) | b;
-                        }
-                        image.setRGB(x, y, rgb);
-                        pixelIndex += 4; // Both BGRX and BGRA are 4 bytes per pixel
-                    }
-                }
+    private void updateHistorySpans() {
+        long span = syncHistorySpan();
+        for (VideoInput input : inputs) {
+            if (input != null) {
+                input.setHistorySpan(span);
             }
+        }
+    }
 
-            synchronized (this) {
-                currentFrame = image;
+    /**
+     * Whether any source needed by the current mosaic is named but not running.
+     */
+    private boolean needsInputs() {
+        int sourceCount = mosaic.getEnum().sources();
+        for (int slot = 0; slot < sourceCount; slot++) {
+            if (inputs[slot] == null && !sourceNames[slot].getString().isEmpty()) {
+                return true;
             }
-
-        } catch (Exception e) {
-            LX.error(e, "Error processing NDI video frame");
         }
+        return false;
     }
 
-    private void cycleToNextSource() {
+    private void cycleToNextSource(int slot) {
+        StringParameter sourceName = sourceNames[slot];
         if (availableSources.isEmpty()) {
             refreshNDISources();
-            if (availableSources.isEmpty()) {
-                ndiSourceName.setValue("");
-                currentSourceIndex = -1;
-                updateSourceButton();
-                return;
+        }
+
+        // NDI sources followed by any shared memory frame files
+        List<String> names = new ArrayList<>();
+        for (DevolaySource source : availableSources) {
+            names.add(source.getSourceName());
+        }
+        names.addAll(ShmInput.listSources());
+        if (names.isEmpty()) {
+            sourceName.setValue("");
+            updateSourceButton(slot);
+            return;
+        }
+
+        int currentSourceIndex = names.indexOf(sourceName.getString());
+        currentSourceIndex = (currentSourceIndex + 1) % names.size();
+        sourceName.setValue(names.get(currentSourceIndex));
+        updateSourceButton(slot);
+    }
+
+    private int findSourceIndex(String name) {
+        for (int i = 0; i < availableSources.size(); i++) {
+            if (availableSources.get(i).getSourceName().equals(name)) {
+                return i;
             }
         }
+        return -1;
+    }
 
-        currentSourceIndex = (currentSourceIndex + 1) % availableSources.size();
-        String sourceName = availableSources.get(currentSourceIndex).getSourceName();
-        ndiSourceName.setValue(sourceName);
-        updateSourceButton();
+    private void updateQualityLabel() {
+        if (qualityLabel == null)
+            return;
+        qualityLabel.setLabel("Quality: " + quality.getEnum());
     }
 
-    private void updateSourceButton() {
+    private void updateSourceButton(int slot) {
+        UIButton sourceSelectButton = sourceSelectButtons[slot];
         if (sourceSelectButton == null)
             return;
 
-        String currentSource = ndiSourceName.getString();
+        String currentSource = sourceNames[slot].getString();
         if (currentSource.isEmpty()) {
             sourceSelectButton.setLabel("No NDI Source");
         } else {
@@ -398,35 +477,71 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                     : currentSource;
             sourceSelectButton.setLabel(displayName);
         }
+    }
 
-        // Update current index to match selected source
-        currentSourceIndex = -1;
-        for (int i = 0; i < availableSources.size(); i++) {
-            if (availableSources.get(i).getSourceName().equals(currentSource)) {
-                currentSourceIndex = i;
-                break;
-            }
+    private void updateSourceButtons() {
+        for (int slot = 0; slot < MAX_SOURCES; slot++) {
+            updateSourceButton(slot);
         }
     }
 
     @Override
     public void onParameterChanged(LXParameter p) {
         super.onParameterChanged(p);
-        if (p == ndiSourceName) {
-            // Restart receiver with new source
-            stopNDIReceiver();
-            if (autoConnect.isOn() && !ndiSourceName.getString().isEmpty()) {
-                startNDIReceiver();
+        for (int slot = 0; slot < MAX_SOURCES; slot++) {
+            if (p == sourceNames[slot]) {
+                // Restart receiver with new source
+                stopInput(slot);
+                if (autoConnect.isOn() && slot < mosaic.getEnum().sources()
+                        && !sourceNames[slot].getString().isEmpty()) {
+                    startInput(slot);
+                }
+            }
+        }
+        if (p == mosaic) {
+            int sourceCount = mosaic.getEnum().sources();
+            for (int slot = sourceCount; slot < MAX_SOURCES; slot++) {
+                stopInput(slot);
+            }
+            if (autoConnect.isOn()) {
+                startInputs();
+            }
+            mappingNeedsUpdate = true;
+            samplesNeedResample = true;
+        } else if (p == frameSync) {
+            updateHistorySpans();
+            Arrays.fill(interpFrom, null);
+            Arrays.fill(interpTo, null);
+        } else if (p == syncDelay) {
+            updateHistorySpans();
+        } else if (p == lutFile || p == gamma || p == redGain || p == greenGain || p == blueGain) {
+            requestColorGrade();
+        } else if (p == previewOut) {
+            if (!previewOut.isOn()) {
+                stopPreview();
             }
+        } else if (p == projection) {
+            uvMapper.requestUpdate(model, projection.getEnum());
+        } else if (p == governor) {
+            qualityGovernor.reset();
+            quality.setValue(qualityGovernor.getLevel());
+        } else if (p == interpolate) {
+            Arrays.fill(interpFrom, null);
+            Arrays.fill(interpTo, null);
+            samplesNeedResample = true;
+        } else if (p == uOffset || p == vOffset || p == uWidth || p == vHeight || p == rotate
+                || p == tileX || p == tileY || p == flipHorizontal || p == flipVertical || p == antialias) {
+            // Both held frames were sampled with the old mapping
+            mappingNeedsUpdate = true;
+            samplesNeedResample = true;
         }
-        // UV parameters don't need special handling - they're used in run()
     }
 
     @Override
     public void onActive() {
         super.onActive();
-        uvsNeedUpdate = true;
-        if (autoConnect.isOn() && !ndiSourceName.getString().isEmpty()) {
+        uvMapper.requestUpdate(model, projection.getEnum());
+        if (autoConnect.isOn() && needsInputs()) {
             // Start delayed initialization with retries
             startDelayedInitialization();
         }
@@ -452,28 +567,26 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                     
                     if (!needsInitialization) break;
                     
-                    // Refresh sources and try to connect
+                    // Refresh sources and try to connect any that are missing
                     refreshNDISources();
-                    
-                    String targetSource = ndiSourceName.getString();
-                    boolean sourceFound = false;
-                    
-                    for (DevolaySource source : availableSources) {
-                        if (source.getSourceName().equals(targetSource)) {
-                            sourceFound = true;
-                            break;
+
+                    int sourceCount = mosaic.getEnum().sources();
+                    for (int slot = 0; slot < sourceCount; slot++) {
+                        String targetSource = sourceNames[slot].getString();
+                        if (inputs[slot] == null && !targetSource.isEmpty()
+                                && (findSourceIndex(targetSource) >= 0 || ShmInput.isShmSource(targetSource))) {
+                            LX.log("NDI source found after " + (retryCount + 1) + " attempt(s): " + targetSource);
+                            startInput(slot);
                         }
                     }
-                    
-                    if (sourceFound) {
-                        LX.log("NDI source found after " + (retryCount + 1) + " attempt(s): " + targetSource);
-                        startNDIReceiver();
+
+                    if (!needsInputs()) {
                         needsInitialization = false;
                         break;
                     } else {
                         retryCount++;
                         if (VERBOSE || retryCount == 1 || retryCount == MAX_RETRIES) {
-                            LX.log("NDI source not yet available, attempt " + retryCount + "/" + MAX_RETRIES + ": " + targetSource);
+                            LX.log("NDI source not yet available, attempt " + retryCount + "/" + MAX_RETRIES);
                         }
                     }
                 } catch (InterruptedException e) {
@@ -485,7 +598,7 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
             }
             
             if (needsInitialization && retryCount >= MAX_RETRIES) {
-                LX.error("Failed to find NDI source after " + MAX_RETRIES + " attempts: " + ndiSourceName.getString());
+                LX.error("Failed to find all NDI sources after " + MAX_RETRIES + " attempts");
             }
         });
         
@@ -508,13 +621,17 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
             }
         }
 
-        stopNDIReceiver();
-        running = false;
+        stopInputs();
+        // Don't keep advertising a preview nobody is rendering
+        stopPreview();
     }
 
     @Override
     public void dispose() {
-        stopNDIReceiver();
+        stopInputs();
+        uvMapper.dispose();
+        colorGrader.dispose();
+        stopPreview();
 
         if (finder != null) {
             try {
@@ -530,56 +647,342 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
 
     @Override
     protected void run(double deltaMs) {
-        BufferedImage frame;
-        synchronized (this) {
-            frame = currentFrame;
+        // The map no longer matches the model, recompute once per stale map
+        if (uvsNeedUpdate) {
+            if (staleUVMap != uvMap) {
+                staleUVMap = uvMap;
+                uvMapper.requestUpdate(model, projection.getEnum());
+            }
+            uvsNeedUpdate = false;
         }
 
-        if (frame == null) {
+        // With frame sync every instance on every engine picks frames for the same
+        // wall clock time, assuming the machines' clocks are synchronized
+        final int sourceCount = mosaic.getEnum().sources();
+        final long syncTimestamp = frameSync.isOn()
+                ? (lx.engine.nowMillis - (long) syncDelay.getValue()) * VideoFrame.TICKS_PER_MS : -1;
+        boolean hasFrame = false;
+        for (int s = 0; s < MAX_SOURCES; s++) {
+            VideoInput input = inputs[s];
+            if (s >= sourceCount || input == null) {
+                frames[s] = null;
+            } else {
+                frames[s] = (syncTimestamp >= 0) ? input.getFrame(syncTimestamp) : input.getFrame();
+            }
+            hasFrame |= (frames[s] != null);
+        }
+
+        if (!hasFrame) {
             return;
         }
 
-        // Update UV points if needed
-        if (uvsNeedUpdate) {
-            computeUVs();
-            uvsNeedUpdate = false;
+        // Pick up a newly computed UV map, if any
+        UVMap latestUVMap = uvMapper.getMap();
+        if (latestUVMap == null) {
+            return;
+        }
+        if (latestUVMap != uvMap) {
+            uvMap = latestUVMap;
+            mappingNeedsUpdate = true;
+            samplesNeedResample = true;
+        }
+        // Held interpolation samples were graded with the old LUT
+        ColorLUT latestLUT = colorGrader.getLUT();
+        if (latestLUT != colorLUT) {
+            colorLUT = latestLUT;
+            samplesNeedResample = true;
+        }
+        // The model grew or shrank before its new map arrived, pointSource has
+        // to cover every point that gets blended
+        if (pointSource == null || pointSource.length != colors.length) {
+            mappingNeedsUpdate = true;
+        }
+        if (mappingNeedsUpdate) {
+            computeMapping();
+            mappingNeedsUpdate = false;
         }
 
-        // Render frame to LEDs using UV mapping
-        renderWithUV(frame);
+        final boolean governed = governor.isOn();
+        final QualityGovernor.Level level = governed ? qualityGovernor.getLevel() : QualityGovernor.Level.FULL;
+        long startNanos = System.nanoTime();
+
+        // Render frame to LEDs using UV mapping.  At reduced quality every other
+        // tick is skipped and the LEDs keep the previous tick's colors.
+        if (!level.halfRate || (++tickCount & 1) == 0) {
+            final boolean bilinear = level.bilinear && antialias.isOn();
+            int start = 0;
+            int step = 1;
+            if (level.interleaved) {
+                interleavePhase ^= 1;
+                start = interleavePhase;
+                step = 2;
+            }
+            if (bilinear != lastBilinear) {
+                lastBilinear = bilinear;
+                samplesNeedResample = true;
+            }
+            if (interpolate.isOn()) {
+                renderInterpolated(sourceCount, syncTimestamp, bilinear, start, step);
+            } else {
+                renderChanged(bilinear, start, step);
+            }
+        }
+
+        if (governed) {
+            double renderMs = (System.nanoTime() - startNanos) / 1_000_000.0;
+            if (qualityGovernor.update(renderMs, deltaMs, budgetMs.getValue())) {
+                quality.setValue(qualityGovernor.getLevel());
+                if (VERBOSE)
+                    LX.log("CkNDI quality: " + qualityGovernor.getLevel() + " (avg " + qualityGovernor.getAverageMs() + "ms)");
+            }
+        }
+
+        if (previewOut.isOn()) {
+            if (previewSender == null) {
+                previewSender = new NDIPreviewSender("CkNDI Preview - " + getLabel(), "CkNDI-Preview");
+            }
+            previewSender.submit(colors, uvMap, previewWidth.getValuei(), previewHeight.getValuei(),
+                    previewFps.getValue());
+        }
     }
 
-    private void renderWithUV(BufferedImage frame) {
-        int width = frame.getWidth();
-        int height = frame.getHeight();
-        float[] uvs = { 0f, 0f };
+    /**
+     * Sample the current frames into colors, skipping sources whose frame hasn't
+     * changed and points whose tiles haven't changed.  An interleaved render only
+     * samples one half of the points, so changes are found against the frame
+     * that half last sampled.
+     */
+    private void renderChanged(boolean bilinear, int start, int step) {
+        if (samplesNeedResample) {
+            // Both halves, whichever renders next
+            for (boolean[] valid : renderedValid) {
+                Arrays.fill(valid, false);
+            }
+            samplesNeedResample = false;
+        }
 
-        for (UVPoint uv : uvPoints) {
-            uvs[0] = uv.u;
-            uvs[1] = uv.v;
+        final int half = (step == 1) ? 0 : start;
+        boolean changed = false;
+        for (int s = 0; s < MAX_SOURCES; s++) {
+            final VideoFrame last = renderedFrames[half][s];
+            boolean valid = renderedValid[half][s];
+            if (step == 1) {
+                // Every point has to have last sampled the same frame
+                valid &= renderedValid[1][s] && renderedFrames[1][s] == last;
+            }
+            if (!valid) {
+                dirtyTiles[s] = null;
+                skipSource[s] = false;
+            } else {
+                skipSource[s] = !findDirtyTiles(s, last, frames[s]);
+            }
+            changed |= !skipSource[s];
+            renderedFrames[half][s] = frames[s];
+            renderedValid[half][s] = true;
+            if (step == 1) {
+                renderedFrames[1][s] = frames[s];
+                renderedValid[1][s] = true;
+            }
+        }
+        if (changed) {
+            renderWithUV(frames, -1, colors, null, true, bilinear, start, step);
+        }
+    }
 
-            // Apply transformations
-            if (flipHorizontal.isOn()) {
-                uvs[0] = 1f - uvs[0];
+    /**
+     * Mark the tiles of a source's new frame that differ from the frame last
+     * sampled, including tiles whose right or lower neighbour changed since
+     * samples can straddle tile edges.  Returns false if nothing changed.  If the
+     * frames can't be compared dirtyTiles is left null to sample everything.
+     */
+    private boolean findDirtyTiles(int s, VideoFrame last, VideoFrame frame) {
+        dirtyTiles[s] = null;
+        if (frame == last) {
+            return false;
+        }
+        if (frame == null || last == null || frame.tileChecksums == null || last.tileChecksums == null
+                || frame.width != last.width || frame.height != last.height) {
+            return true;
+        }
+        updateSampleTiles(s, frame);
+
+        final int columns = frame.tileColumns;
+        final int rows = frame.tileRows;
+        final int[] a = last.tileChecksums;
+        final int[] b = frame.tileChecksums;
+        boolean[] dirty = dirtyTileBuffers[s];
+        if (dirty == null || dirty.length != columns * rows) {
+            dirty = dirtyTileBuffers[s] = new boolean[columns * rows];
+        }
+        boolean any = false;
+        for (int ty = 0; ty < rows; ty++) {
+            for (int tx = 0; tx < columns; tx++) {
+                int t = ty * columns + tx;
+                boolean right = tx + 1 < columns;
+                boolean below = ty + 1 < rows;
+                dirty[t] = a[t] != b[t]
+                        || (right && a[t + 1] != b[t + 1])
+                        || (below && a[t + columns] != b[t + columns])
+                        || (right && below && a[t + columns + 1] != b[t + columns + 1]);
+                any |= dirty[t];
             }
-            if (flipVertical.isOn()) {
-                uvs[1] = 1f - uvs[1];
+        }
+        dirtyTiles[s] = dirty;
+        return any;
+    }
+
+    /**
+     * Compute the tile each of a source's map entries samples, for frames the
+     * size of the given one.  This is the tile of the top left pixel of the
+     * bilinear footprint.
+     */
+    private void updateSampleTiles(int s, VideoFrame frame) {
+        final int width = frame.width;
+        final int height = frame.height;
+        if (sampleTileWidth[s] == width && sampleTileHeight[s] == height) {
+            return;
+        }
+        final byte[] source = sampleSource;
+        for (int i = 0; i < sampleTile.length; i++) {
+            if (source[i] == s) {
+                int x = Math.max(0, Math.min(width - 2, (int) Math.floor(sampleX[i] * (width - 1))));
+                int y = Math.max(0, Math.min(height - 2, (int) Math.floor(sampleY[i] * (height - 1))));
+                sampleTile[i] = (y >> VideoFrame.TILE_SHIFT) * frame.tileColumns + (x >> VideoFrame.TILE_SHIFT);
             }
-            if (tileX.getValuei() > 1) {
-                uvs[0] = (uvs[0] * tileX.getValuei() - 0.01f) % 1f;
+        }
+        sampleTileWidth[s] = width;
+        sampleTileHeight[s] = height;
+    }
+
+    /**
+     * Samples each source frame once, when it arrives, and then on every tick
+     * blends the previous and newest samples per point.  The display runs one
+     * source frame behind so that the blend always lands exactly on the newest
+     * frame by the time the following one is expected.  Each mosaic source is
+     * timed independently.  Interleaving only applies to the blend, the held
+     * frames are always sampled in full so that neither array ends up with
+     * stale points.
+     */
+    private void renderInterpolated(int sourceCount, long syncTimestamp, boolean bilinear, int start, int step) {
+        if (prevColors == null || prevColors.length != colors.length) {
+            prevColors = new int[colors.length];
+            nextColors = new int[colors.length];
+            Arrays.fill(interpFrom, null);
+            Arrays.fill(interpTo, null);
+        }
+
+        final boolean resample = samplesNeedResample;
+        samplesNeedResample = false;
+        final long now = System.nanoTime();
+        Arrays.fill(blendAmount, 256);
+
+        for (int s = 0; s < sourceCount; s++) {
+            VideoFrame frame = frames[s];
+            if (frame == null) {
+                continue;
             }
-            if (tileY.getValuei() > 1) {
-                uvs[1] = (uvs[1] * tileY.getValuei() - 0.01f) % 1f;
+            if (interpTo[s] == null) {
+                interpFrom[s] = frame;
+                interpTo[s] = frame;
+                renderWithUV(interpFrom, s, prevColors, null, false, bilinear, 0, 1);
+                renderWithUV(interpTo, s, nextColors, null, false, bilinear, 0, 1);
+            } else if (frame != interpTo[s]) {
+                interpFrom[s] = interpTo[s];
+                interpTo[s] = frame;
+                if (resample) {
+                    renderWithUV(interpFrom, s, prevColors, null, false, bilinear, 0, 1);
+                    renderWithUV(interpTo, s, nextColors, null, false, bilinear, 0, 1);
+                } else {
+                    // Shifts the old samples into prevColors as it goes, points
+                    // in unchanged tiles are only shifted
+                    skipSource[s] = false;
+                    findDirtyTiles(s, interpFrom[s], interpTo[s]);
+                    renderWithUV(interpTo, s, nextColors, prevColors, true, bilinear, 0, 1);
+                }
+            } else if (resample) {
+                renderWithUV(interpFrom, s, prevColors, null, false, bilinear, 0, 1);
+                renderWithUV(interpTo, s, nextColors, null, false, bilinear, 0, 1);
             }
-            if (rotate.getValuef() > 0) {
-                rotateUV(uvs[0], uvs[1], rotate.getValuef() * (float) Math.PI * 2, uvs);
+
+            // Synchronized frames are timed by source timestamp so that every
+            // instance blends identically
+            long interval;
+            long elapsed;
+            if (syncTimestamp >= 0) {
+                interval = (interpTo[s].timestamp - interpFrom[s].timestamp) * 100;
+                elapsed = (syncTimestamp - interpTo[s].timestamp) * 100;
+            } else {
+                interval = interpTo[s].receivedNanos - interpFrom[s].receivedNanos;
+                elapsed = now - interpTo[s].receivedNanos;
+            }
+            if (interval > 0 && interval < MAX_INTERP_INTERVAL_NS) {
+                blendAmount[s] = (int) Math.max(0, Math.min(256, (elapsed << 8) / interval));
+            }
+        }
+
+        boolean uniform = true;
+        for (int s = 1; s < sourceCount; s++) {
+            uniform &= (blendAmount[s] == blendAmount[0]);
+        }
+
+        if (step == 1 && uniform && blendAmount[0] >= 256) {
+            System.arraycopy(nextColors, 0, colors, 0, colors.length);
+        } else if (step == 1 && uniform && blendAmount[0] <= 0) {
+            System.arraycopy(prevColors, 0, colors, 0, colors.length);
+        } else {
+            final int[] prev = prevColors;
+            final int[] next = nextColors;
+            final byte[] source = pointSource;
+            for (int i = start; i < colors.length; i += step) {
+                colors[i] = UVUtil.lerpARGB(prev[i], next[i], blendAmount[source[i]]);
+            }
+        }
+    }
+
+    /**
+     * Sample the frames for every map entry, writing into out by point index.
+     *
+     * @param sourceFrames Frame to sample for each mosaic cell, null renders black
+     * @param onlySource Only sample entries from this cell, or -1 for all
+     * @param shiftInto If non-null, the previous value of out is copied here first
+     * @param changedOnly Skip sources in skipSource and points outside dirtyTiles
+     */
+    private void renderWithUV(VideoFrame[] sourceFrames, int onlySource, int[] out, int[] shiftInto,
+                              boolean changedOnly, boolean bilinear, int start, int step) {
+        final int[] index = uvMap.index;
+        final byte[] source = sampleSource;
+        final ColorLUT lut = colorLUT;
+
+        // The map is in Z-order of source position, so walking it sequentially
+        // keeps the pixel reads local and scatters the writes to out instead.
+        for (int i = start; i < index.length; i += step) {
+            if (onlySource >= 0 && source[i] != onlySource) {
+                continue;
             }
+            if (changedOnly) {
+                if (skipSource[source[i]]) {
+                    continue;
+                }
+                final boolean[] dirty = dirtyTiles[source[i]];
+                if (dirty != null && !dirty[sampleTile[i]]) {
+                    if (shiftInto != null && index[i] < out.length) {
+                        shiftInto[index[i]] = out[index[i]];
+                    }
+                    continue;
+                }
+            }
+            final VideoFrame frame = sourceFrames[source[i]];
 
             int color = 0;
-            if (antialias.isOn()) {
+            if (frame == null) {
+                // Source not connected, leave black
+            } else if (bilinear) {
+                final int width = frame.width;
+                final int height = frame.height;
+
                 // Calculate continuous coordinates (don't round yet)
-                float fx = (uOffset.getValuef() + uvs[0] * uWidth.getValuef()) * (width - 1);
-                float fy = (vOffset.getValuef() + uvs[1] * vHeight.getValuef()) * (height - 1);
+                float fx = sampleX[i] * (width - 1);
+                float fy = sampleY[i] * (height - 1);
 
                 // Get the four corner pixels for interpolation
                 int x0 = Math.max(0, Math.min(width - 2, (int) Math.floor(fx)));
@@ -592,95 +995,204 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                 float dy = fy - y0;
 
                 if (x0 >= 0 && x1 < width && y0 >= 0 && y1 < height) {
+                    final int[] pixels = frame.pixels;
+
                     // Get the four corner colors
-                    int c00 = frame.getRGB(x0, y0); // top-left
-                    int c10 = frame.getRGB(x1, y0); // top-right
-                    int c01 = frame.getRGB(x0, y1); // bottom-left
-                    int c11 = frame.getRGB(x1, y1); // bottom-right
+                    int c00 = pixels[y0 * width + x0]; // top-left
+                    int c10 = pixels[y0 * width + x1]; // top-right
+                    int c01 = pixels[y1 * width + x0]; // bottom-left
+                    int c11 = pixels[y1 * width + x1]; // bottom-right
 
                     // Extract RGB components and interpolate each channel separately
                     color = UVUtil.bilinearInterpolateRGB(c00, c10, c01, c11, dx, dy);
                 }
             } else {
-                int x = Math.round((uOffset.getValuef() + uvs[0] * uWidth.getValuef()) * (width - 1));
-                int y = Math.round((vOffset.getValuef() + uvs[1] * vHeight.getValuef()) * (height - 1));
+                final int width = frame.width;
+                final int height = frame.height;
+                int x = Math.round(sampleX[i] * (width - 1));
+                int y = Math.round(sampleY[i] * (height - 1));
 
                 if (x >= 0 && x < width && y >= 0 && y < height) {
-                    color = frame.getRGB(x, y);
+                    color = frame.pixels[y * width + x];
                 }
             }
-            if (uv.point.index < colors.length) {
+            if (lut != null && frame != null) {
+                color = lut.apply(color);
+            }
+            if (index[i] < out.length) {
                 // Extract ARGB components including alpha
                 int alpha = (color >> 24) & 0xFF;
                 int red = (color >> 16) & 0xFF;
                 int green = (color >> 8) & 0xFF;
                 int blue = color & 0xFF;
-                
+
+                if (shiftInto != null) {
+                    shiftInto[index[i]] = out[index[i]];
+                }
                 // Use LXColor.rgba to include alpha channel
-                colors[uv.point.index] = LXColor.rgba(red, green, blue, alpha);
+                out[index[i]] = LXColor.rgba(red, green, blue, alpha);
             } else {
                 uvsNeedUpdate = true;
             }
         }
     }
 
-    private void rotateUV(float u, float v, float rad, float[] results) {
+    private void rotateUV(float u, float v, float cos, float sin, float[] results) {
         float x = u - 0.5f;
         float y = v - 0.5f;
-        float cos = (float) Math.cos(rad);
-        float sin = (float) Math.sin(rad);
         results[0] = x * cos - y * sin + 0.5f;
         results[1] = x * sin + y * cos + 0.5f;
     }
 
-    private void computeUVs() {
-        if (uvPoints == null || uvsNeedUpdate) {
-            uvPoints = new ArrayList<>(model.points.length);
-        } else {
-            uvPoints.clear();
+    /**
+     * Apply the mosaic, flip, tile, rotate, offset and scale parameters to every
+     * UV point, producing the mosaic cell and normalized source image coordinates
+     * each point samples.  This only needs to run when the parameters or the UVs
+     * change.  The bounding box of each cell's results is the part of that source
+     * that rendering can touch, which is published to the input so that it only
+     * converts that region.
+     */
+    private void computeMapping() {
+        final int n = uvMap.size();
+        final int[] index = uvMap.index;
+        final float[] u = uvMap.u;
+        final float[] v = uvMap.v;
+        if (sampleX == null || sampleX.length != n) {
+            sampleX = new float[n];
+            sampleY = new float[n];
+            sampleSource = new byte[n];
+            sampleTile = new int[n];
         }
+        Arrays.fill(sampleTileWidth, 0);
+        Arrays.fill(sampleTileHeight, 0);
+        if (pointSource == null || pointSource.length != colors.length) {
+            pointSource = new byte[colors.length];
+        }
+
+        final MosaicLayout layout = mosaic.getEnum();
+        final int columns = layout.columns;
+        final int rows = layout.rows;
+        final boolean flipX = flipHorizontal.isOn();
+        final boolean flipY = flipVertical.isOn();
+        final int tx = tileX.getValuei();
+        final int ty = tileY.getValuei();
+        final boolean rotated = rotate.getValuef() > 0;
+        final float rad = rotate.getValuef() * (float) Math.PI * 2;
+        final float cos = (float) Math.cos(rad);
+        final float sin = (float) Math.sin(rad);
+        final float uOff = uOffset.getValuef();
+        final float vOff = vOffset.getValuef();
+        final float uW = uWidth.getValuef();
+        final float vH = vHeight.getValuef();
+        float[] uvs = { 0f, 0f };
 
-        float[] planeNormal = UVUtil.computePlaneNormal(model);
-        UVUtil.normalizePlaneNormal(planeNormal);
+        final float[] minX = new float[MAX_SOURCES];
+        final float[] minY = new float[MAX_SOURCES];
+        final float[] maxX = new float[MAX_SOURCES];
+        final float[] maxY = new float[MAX_SOURCES];
+        Arrays.fill(minX, Float.MAX_VALUE);
+        Arrays.fill(minY, Float.MAX_VALUE);
+        Arrays.fill(maxX, -Float.MAX_VALUE);
+        Arrays.fill(maxY, -Float.MAX_VALUE);
+        for (int i = 0; i < n; i++) {
+            // Find the mosaic cell, v increases upwards so the first row is at the top
+            int column = Math.min(columns - 1, (int) (u[i] * columns));
+            int row = Math.min(rows - 1, (int) (v[i] * rows));
+            int s = (rows - 1 - row) * columns + column;
+            uvs[0] = u[i] * columns - column;
+            uvs[1] = v[i] * rows - row;
 
-        float[] rotateAxisAngle = UVUtil.computeAxesRotates(planeNormal);
-        float[] rotateAxis = { rotateAxisAngle[0], rotateAxisAngle[1], rotateAxisAngle[2] };
-        float rotateAngle = rotateAxisAngle[3];
-        float[] rotatedPoint = new float[3];
+            // Apply transformations
+            if (flipX) {
+                uvs[0] = 1f - uvs[0];
+            }
+            if (flipY) {
+                uvs[1] = 1f - uvs[1];
+            }
+            if (tx > 1) {
+                uvs[0] = (uvs[0] * tx - 0.01f) % 1f;
+            }
+            if (ty > 1) {
+                uvs[1] = (uvs[1] * ty - 0.01f) % 1f;
+            }
+            if (rotated) {
+                rotateUV(uvs[0], uvs[1], cos, sin, uvs);
+            }
 
-        // Only normalize if the axis has non-zero length
-        float axisLength = UVUtil.vectorLength(rotateAxis);
-        if (axisLength > 0.0001f) {
-            UVUtil.normalizePlaneNormal(rotateAxis);
+            float sx = uOff + uvs[0] * uW;
+            float sy = vOff + uvs[1] * vH;
+            sampleX[i] = sx;
+            sampleY[i] = sy;
+            sampleSource[i] = (byte) s;
+            if (index[i] < pointSource.length) {
+                pointSource[index[i]] = (byte) s;
+            }
+            if (sx < minX[s]) minX[s] = sx;
+            if (sx > maxX[s]) maxX[s] = sx;
+            if (sy < minY[s]) minY[s] = sy;
+            if (sy > maxY[s]) maxY[s] = sy;
         }
-        
-        for (heronarts.lx.model.LXPoint p : model.points) {
-            float[] point = { p.x, p.y, p.z };
-            // Only rotate if we have a valid rotation (angle > 0 and valid axis)
-            if (rotateAngle > 0.0001f && axisLength > 0.0001f) {
-                UVUtil.rotatePointAroundAxis(point, rotateAxis, rotateAngle, rotatedPoint);
-                UVPoint uv = new UVPoint(p, rotatedPoint[0], rotatedPoint[1]);
-                uvPoints.add(uv);
+
+        for (int s = 0; s < MAX_SOURCES; s++) {
+            if (minX[s] > maxX[s] || (minX[s] <= 0 && minY[s] <= 0 && maxX[s] >= 1 && maxY[s] >= 1)) {
+                sourceRegions[s] = null;
             } else {
-                // No rotation needed, use original coordinates
-                UVPoint uv = new UVPoint(p, p.x, p.y);
-                uvPoints.add(uv);
+                sourceRegions[s] = new float[] {
+                        Math.max(0f, Math.min(1f, minX[s])),
+                        Math.max(0f, Math.min(1f, minY[s])),
+                        Math.max(0f, Math.min(1f, maxX[s])),
+                        Math.max(0f, Math.min(1f, maxY[s]))
+                };
+            }
+            if (inputs[s] != null) {
+                inputs[s].setSourceRegion(sourceRegions[s]);
             }
         }
+    }
 
-        UVPoint.renormalizeUVs(uvPoints);
+    private void buildSourceButton(final int slot, UI2dContainer container) {
+        sourceSelectButtons[slot] = (UIButton) new UIButton(65, 0, 170, 18) {
+            @Override
+            public void onToggle(boolean on) {
+                if (on) {
+                    cycleToNextSource(slot);
+                }
+            }
+        }
+                .setMomentary(true)
+                .setDescription("Click to cycle through NDI sources")
+                .addToContainer(container);
+        updateSourceButton(slot);
+    }
+
+    // Device controls are laid out in columns that fit the device height
+    private static final int COLUMN_WIDTH = 270;
+    private static final int COLUMN_HEIGHT = 180;
+    private static final int COLUMN_SPACING = 10;
+
+    private static UI2dContainer addColumn(UI2dContainer parent) {
+        UI2dContainer column = new UI2dContainer(0, 0, COLUMN_WIDTH, COLUMN_HEIGHT)
+                .setLayout(UI2dContainer.Layout.VERTICAL)
+                .setChildSpacing(5);
+        column.addToContainer(parent);
+        return column;
     }
 
     @Override
     public void buildDeviceControls(LXStudio.UI ui, UIDevice uiDevice, CkNDI pattern) {
-        uiDevice.setContentWidth(280);
-        uiDevice.setLayout(UI2dContainer.Layout.VERTICAL);
+        // Columns side by side, each fitting the device height: sources and
+        // mapping, mosaic and sync, then grading and output
+        uiDevice.setContentWidth(3 * COLUMN_WIDTH + 2 * COLUMN_SPACING + 10);
+        uiDevice.setLayout(UI2dContainer.Layout.HORIZONTAL);
         uiDevice.setPadding(5, 0);
-        uiDevice.setChildSpacing(5);
+        uiDevice.setChildSpacing(COLUMN_SPACING);
+        final UI2dContainer sourceColumn = addColumn(uiDevice);
+        final UI2dContainer mosaicColumn = addColumn(uiDevice);
+        final UI2dContainer outputColumn = addColumn(uiDevice);
 
         // NDI Source selection container
         final UI2dContainer sourceContainer = new UI2dContainer(0, 0, 270, 18);
-        sourceContainer.addToContainer(uiDevice);
+        sourceContainer.addToContainer(sourceColumn);
 
         new UILabel(0, 0, 60, 18)
                 .setLabel("NDI Source:")
@@ -688,18 +1200,7 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                 .addToContainer(sourceContainer);
 
         // Source selection button
-        sourceSelectButton = (UIButton) new UIButton(65, 0, 170, 18) {
-            @Override
-            public void onToggle(boolean on) {
-                if (on) {
-                    cycleToNextSource();
-                }
-            }
-        }
-                .setMomentary(true)
-                .setDescription("Click to cycle through NDI sources")
-                .addToContainer(sourceContainer);
-        updateSourceButton();
+        buildSourceButton(0, sourceContainer);
 
         // Refresh button
         refreshButton = (UIButton) new UIButton(250, 0, 18, 18) {
@@ -709,7 +1210,7 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                     if (VERBOSE)
                         LX.log("Refresh button pressed");
                     refreshNDISources();
-                    updateSourceButton();
+                    updateSourceButtons();
                 }
             }
         }
@@ -719,8 +1220,8 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                 .addToContainer(sourceContainer);
 
         // Auto-connect button
-        final UI2dContainer autoContainer = new UI2dContainer(0, 25, 150, 18);
-        autoContainer.addToContainer(uiDevice);
+        final UI2dContainer autoContainer = new UI2dContainer(0, 25, 270, 18);
+        autoContainer.addToContainer(sourceColumn);
         new UIButton(0, 0, 80, 18)
                 .setParameter(pattern.autoConnect)
                 .setLabel("Auto Connect")
@@ -729,11 +1230,25 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
                 .setParameter(pattern.antialias)
                 .setLabel("Antialias")
                 .addToContainer(autoContainer);
+        new UIButton(160, 0, 60, 18)
+                .setParameter(pattern.interpolate)
+                .setLabel("Interp")
+                .addToContainer(autoContainer);
+
+        // Projection selection
+        final UI2dContainer projectionContainer = new UI2dContainer(0, 25, 270, 18);
+        projectionContainer.addToContainer(sourceColumn);
+        new UILabel(0, 0, 60, 18)
+                .setLabel("Projection:")
+                .setTextAlignment(VGraphics.Align.LEFT, VGraphics.Align.MIDDLE)
+                .addToContainer(projectionContainer);
+        new UIDropMenu(65, 0, 100, 18, pattern.projection)
+                .addToContainer(projectionContainer);
 
         // UV controls container
         final UI2dContainer uvContainer = (UI2dContainer) new UI2dContainer(0, 50, 270, 40)
                 .setLayout(UI2dContainer.Layout.HORIZONTAL)
-                .addToContainer(uiDevice);
+                .addToContainer(sourceColumn);
         uvContainer.setPadding(5);
         uvContainer.setChildSpacing(5);
         new UIKnob(0, 0, 35, 30)
@@ -755,7 +1270,7 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         // Flip and tile controls
         final UI2dContainer controlsContainer = (UI2dContainer) new UI2dContainer(0, 95, 270, 40)
                 .setLayout(UI2dContainer.Layout.HORIZONTAL)
-                .addToContainer(uiDevice);
+                .addToContainer(sourceColumn);
         controlsContainer.setPadding(5);
         controlsContainer.setChildSpacing(5);
         new UIButton(0, 0, 35, 30)
@@ -772,5 +1287,105 @@ public class CkNDI extends LXPattern implements UIDeviceControls<CkNDI> {
         new UIKnob(120, 0, 35, 30)
                 .setParameter(pattern.tileY)
                 .addToContainer(controlsContainer);
+
+        // Mosaic layout and the sources for the other cells
+        final UI2dContainer mosaicContainer = new UI2dContainer(0, 0, 270, 18);
+        mosaicContainer.addToContainer(mosaicColumn);
+        new UILabel(0, 0, 60, 18)
+                .setLabel("Mosaic:")
+                .setTextAlignment(VGraphics.Align.LEFT, VGraphics.Align.MIDDLE)
+                .addToContainer(mosaicContainer);
+        new UIDropMenu(65, 0, 100, 18, pattern.mosaic)
+                .addToContainer(mosaicContainer);
+        for (int slot = 1; slot < MAX_SOURCES; slot++) {
+            final UI2dContainer slotContainer = new UI2dContainer(0, 0, 270, 18);
+            slotContainer.addToContainer(mosaicColumn);
+            new UILabel(0, 0, 60, 18)
+                    .setLabel("Source " + (slot + 1) + ":")
+                    .setTextAlignment(VGraphics.Align.LEFT, VGraphics.Align.MIDDLE)
+                    .addToContainer(slotContainer);
+            buildSourceButton(slot, slotContainer);
+        }
+
+        // Frame sync controls
+        final UI2dContainer syncContainer = (UI2dContainer) new UI2dContainer(0, 0, 270, 40)
+                .setLayout(UI2dContainer.Layout.HORIZONTAL)
+                .addToContainer(mosaicColumn);
+        syncContainer.setPadding(5);
+        syncContainer.setChildSpacing(5);
+        new UIButton(0, 0, 60, 30)
+                .setParameter(pattern.frameSync)
+                .setLabel("Sync")
+                .addToContainer(syncContainer);
+        new UIKnob(65, 0, 35, 30)
+                .setParameter(pattern.syncDelay)
+                .addToContainer(syncContainer);
+
+        // Color grading controls
+        final UI2dContainer lutContainer = new UI2dContainer(0, 0, 270, 18);
+        lutContainer.addToContainer(outputColumn);
+        new UILabel(0, 0, 60, 18)
+                .setLabel("LUT File:")
+                .setTextAlignment(VGraphics.Align.LEFT, VGraphics.Align.MIDDLE)
+                .addToContainer(lutContainer);
+        new UITextBox(65, 0, 203, 18)
+                .setParameter(pattern.lutFile)
+                .setDescription("Path to a .cube file, leave empty for none")
+                .addToContainer(lutContainer);
+        final UI2dContainer gradeContainer = (UI2dContainer) new UI2dContainer(0, 0, 270, 40)
+                .setLayout(UI2dContainer.Layout.HORIZONTAL)
+                .addToContainer(outputColumn);
+        gradeContainer.setPadding(5);
+        gradeContainer.setChildSpacing(5);
+        new UIKnob(0, 0, 35, 30)
+                .setParameter(pattern.gamma)
+                .addToContainer(gradeContainer);
+        new UIKnob(40, 0, 35, 30)
+                .setParameter(pattern.redGain)
+                .addToContainer(gradeContainer);
+        new UIKnob(80, 0, 35, 30)
+                .setParameter(pattern.greenGain)
+                .addToContainer(gradeContainer);
+        new UIKnob(120, 0, 35, 30)
+                .setParameter(pattern.blueGain)
+                .addToContainer(gradeContainer);
+
+        // Preview output controls
+        final UI2dContainer previewContainer = (UI2dContainer) new UI2dContainer(0, 0, 270, 40)
+                .setLayout(UI2dContainer.Layout.HORIZONTAL)
+                .addToContainer(outputColumn);
+        previewContainer.setPadding(5);
+        previewContainer.setChildSpacing(5);
+        new UIButton(0, 0, 60, 30)
+                .setParameter(pattern.previewOut)
+                .setLabel("NDI Out")
+                .addToContainer(previewContainer);
+        new UIKnob(65, 0, 35, 30)
+                .setParameter(pattern.previewFps)
+                .addToContainer(previewContainer);
+        new UIKnob(105, 0, 35, 30)
+                .setParameter(pattern.previewWidth)
+                .addToContainer(previewContainer);
+        new UIKnob(145, 0, 35, 30)
+                .setParameter(pattern.previewHeight)
+                .addToContainer(previewContainer);
+
+        // Quality governor controls
+        final UI2dContainer governorContainer = (UI2dContainer) new UI2dContainer(0, 140, 270, 40)
+                .setLayout(UI2dContainer.Layout.HORIZONTAL)
+                .addToContainer(outputColumn);
+        governorContainer.setPadding(5);
+        governorContainer.setChildSpacing(5);
+        new UIButton(0, 0, 60, 30)
+                .setParameter(pattern.governor)
+                .setLabel("Governor")
+                .addToContainer(governorContainer);
+        new UIKnob(65, 0, 35, 30)
+                .setParameter(pattern.budgetMs)
+                .addToContainer(governorContainer);
+        qualityLabel = (UILabel) new UILabel(105, 0, 150, 30)
+                .setTextAlignment(VGraphics.Align.LEFT, VGraphics.Align.MIDDLE)
+                .addToContainer(governorContainer);
+        updateQualityLabel();
     }
 }
\ No newline at end of file
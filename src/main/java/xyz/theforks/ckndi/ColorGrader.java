@@ -0,0 +1,87 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+
+import java.io.File;
+
+/**
+ * Loads and compiles ColorLUTs on a background thread, so that choosing a new
+ * .cube file or moving a curve knob never stalls the engine.  The renderer
+ * keeps using the previous LUT until the new one is published.  Requests made
+ * while a compile is running are coalesced.  The parsed cube is kept, so curve
+ * changes don't reread the file.
+ */
+public class ColorGrader {
+
+    static class Settings {
+        final String path;
+        final float gamma;
+        final float red;
+        final float green;
+        final float blue;
+
+        Settings(String path, float gamma, float red, float green, float blue) {
+            this.path = path;
+            this.gamma = gamma;
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+        }
+    }
+
+    private final BackgroundWorker<Settings> worker;
+    private volatile ColorLUT lut = null;
+
+    // Parsed cube, kept between compiles
+    private String cubePath = "";
+    private long cubeModified = 0;
+    private ColorLUT.Cube cube = null;
+
+    public ColorGrader(String threadName) {
+        worker = new BackgroundWorker<>(threadName, this::compile);
+    }
+
+    /**
+     * The most recently compiled LUT, or null if grading is off.
+     */
+    public ColorLUT getLUT() {
+        return lut;
+    }
+
+    /**
+     * Schedule a compile.  An empty path means no cube file.
+     */
+    public void requestUpdate(String path, float gamma, float red, float green, float blue) {
+        worker.submit(new Settings(path.trim(), gamma, red, green, blue));
+    }
+
+    public void dispose() {
+        worker.dispose(true);
+    }
+
+    private void compile(Settings settings) {
+        try {
+            File file = new File(settings.path);
+            if (settings.path.isEmpty()) {
+                cube = null;
+            } else if (!settings.path.equals(cubePath) || file.lastModified() != cubeModified) {
+                cube = null;
+                if (!file.isFile()) {
+                    LX.error("LUT file not found: " + settings.path);
+                } else {
+                    cube = ColorLUT.parseCube(file);
+                }
+            }
+            cubePath = settings.path;
+            cubeModified = file.lastModified();
+
+            if (ColorLUT.isIdentity(cube, settings.gamma, settings.red, settings.green, settings.blue)) {
+                lut = null;
+            } else {
+                lut = ColorLUT.compile(cube, settings.gamma, settings.red, settings.green, settings.blue);
+            }
+        } catch (Exception e) {
+            LX.error(e, "Error loading LUT " + settings.path);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package xyz.theforks.ckndi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Color grading compiled into lookup tables.  The pipeline is an optional 1D
+ * .cube curve per channel, an optional 3D .cube LUT, white balance gains and
+ * then gamma.  Without a 3D LUT every stage is per channel and is compiled into
+ * three 256 entry curves at full precision.  With a 3D LUT everything is
+ * compiled into a single 33x33x33 table, 140 KiB, which is interpolated
+ * tetrahedrally with 8 bit weights, so grading a sample costs four table reads.
+ * A ColorLUT is never modified once compiled.
+ */
+public class ColorLUT {
+
+    // Lattice points per channel of the compiled 3D table
+    private static final int TABLE_SIZE = 33;
+    private static final int STEP_R = TABLE_SIZE * TABLE_SIZE;
+    private static final int STEP_G = TABLE_SIZE;
+    // Table entries hold 10 bits per channel, scaled so that interpolating and
+    // dropping 10 bits lands back on 0-255
+    private static final float TABLE_SCALE = 255 * 4;
+
+    /**
+     * Contents of a .cube file.  Values are rgb triples in file order, red
+     * changing fastest.
+     */
+    public static class Cube {
+        public final int size;
+        public final boolean is3D;
+        public final float[] domainMin;
+        public final float[] domainMax;
+        public final float[] values;
+
+        private Cube(int size, boolean is3D, float[] domainMin, float[] domainMax, float[] values) {
+            this.size = size;
+            this.is3D = is3D;
+            this.domainMin = domainMin;
+            this.domainMax = domainMax;
+            this.values = values;
+        }
+    }
+
+    // Either table is null.  Curves are packed red, green then blue, 256 each.
+    private final int[] table;
+    private final int[] curves;
+    // Maps an 8 bit channel value to the lattice point below it and the weight,
+    // out of 256, of the lattice point above it
+    private final int[] lattice;
+    private final int[] weight;
+
+    private ColorLUT(int[] table, int[] curves, int[] lattice, int[] weight) {
+        this.table = table;
+        this.curves = curves;
+        this.lattice = lattice;
+        this.weight = weight;
+    }
+
+    /**
+     * Grade an ARGB color, alpha is passed through.
+     */
+    public int apply(int color) {
+        final int r = (color >> 16) & 0xFF;
+        final int g = (color >> 8) & 0xFF;
+        final int b = color & 0xFF;
+        if (table != null) {
+            return (color & 0xFF000000) | interpolate(r, g, b);
+        }
+        return (color & 0xFF000000) | (curves[r] << 16) | (curves[256 + g] << 8) | curves[512 + b];
+    }
+
+    /**
+     * Tetrahedral interpolation of the 3D table.  The cube around the color is
+     * split into six tetrahedra along its diagonal, the one containing the color
+     * is picked by ordering the weights and its four corners are blended.
+     */
+    private int interpolate(int r, int g, int b) {
+        final int fr = weight[r];
+        final int fg = weight[g];
+        final int fb = weight[b];
+        final int base = lattice[r] * STEP_R + lattice[g] * STEP_G + lattice[b];
+        final int c000 = table[base];
+        final int c111 = table[base + STEP_R + STEP_G + 1];
+        if (fr >= fg) {
+            if (fg >= fb) {
+                return blend(c000, 256 - fr, table[base + STEP_R], fr - fg,
+                        table[base + STEP_R + STEP_G], fg - fb, c111, fb);
+            } else if (fr >= fb) {
+                return blend(c000, 256 - fr, table[base + STEP_R], fr - fb,
+                        table[base + STEP_R + 1], fb - fg, c111, fg);
+            } else {
+                return blend(c000, 256 - fb, table[base + 1], fb - fr,
+                        table[base + STEP_R + 1], fr - fg, c111, fg);
+            }
+        } else {
+            if (fb >= fg) {
+                return blend(c000, 256 - fb, table[base + 1], fb - fg,
+                        table[base + STEP_G + 1], fg - fr, c111, fr);
+            } else if (fb >= fr) {
+                return blend(c000, 256 - fg, table[base + STEP_G], fg - fb,
+                        table[base + STEP_G + 1], fb - fr, c111, fr);
+            } else {
+                return blend(c000, 256 - fg, table[base + STEP_G], fg - fr,
+                        table[base + STEP_R + STEP_G], fr - fb, c111, fb);
+            }
+        }
+    }
+
+    /**
+     * Weighted sum of four table entries, weights adding up to 256, as RGB.
+     */
+    private static int blend(int c0, int w0, int c1, int w1, int c2, int w2, int c3, int w3) {
+        int r = ((c0 >> 20) & 0x3FF) * w0 + ((c1 >> 20) & 0x3FF) * w1
+                + ((c2 >> 20) & 0x3FF) * w2 + ((c3 >> 20) & 0x3FF) * w3;
+        int g = ((c0 >> 10) & 0x3FF) * w0 + ((c1 >> 10) & 0x3FF) * w1
+                + ((c2 >> 10) & 0x3FF) * w2 + ((c3 >> 10) & 0x3FF) * w3;
+        int b = (c0 & 0x3FF) * w0 + (c1 & 0x3FF) * w1 + (c2 & 0x3FF) * w2 + (c3 & 0x3FF) * w3;
+        return (((r + 512) >> 10) << 16) | (((g + 512) >> 10) << 8) | ((b + 512) >> 10);
+    }
+
+    /**
+     * Whether the given settings grade anything at all.
+     */
+    static public boolean isIdentity(Cube cube, float gamma, float red, float green, float blue) {
+        return cube == null && gamma == 1f && red == 1f && green == 1f && blue == 1f;
+    }
+
+    /**
+     * Compile a cube, which may be null, with white balance gains and a gamma
+     * exponent applied after it.
+     */
+    static public ColorLUT compile(Cube cube, float gamma, float red, float green, float blue) {
+        final float[] gains = { red, green, blue };
+        final float[] rgb = new float[3];
+
+        if (cube == null || !cube.is3D) {
+            int[] curves = new int[3 * 256];
+            for (int c = 0; c < 3; c++) {
+                for (int x = 0; x < 256; x++) {
+                    rgb[c] = x / 255f;
+                    if (cube != null) {
+                        rgb[c] = sample1D(cube, c, rgb[c]);
+                    }
+                    curves[c * 256 + x] = toByte(finish(rgb[c], gains[c], gamma));
+                }
+            }
+            return new ColorLUT(null, curves, null, null);
+        }
+
+        int[] lattice = new int[256];
+        int[] weight = new int[256];
+        for (int x = 0; x < 256; x++) {
+            float f = x * (TABLE_SIZE - 1) / 255f;
+            lattice[x] = Math.min(TABLE_SIZE - 2, (int) f);
+            weight[x] = Math.round((f - lattice[x]) * 256);
+        }
+        int[] table = new int[TABLE_SIZE * TABLE_SIZE * TABLE_SIZE];
+        for (int ri = 0; ri < TABLE_SIZE; ri++) {
+            for (int gi = 0; gi < TABLE_SIZE; gi++) {
+                for (int bi = 0; bi < TABLE_SIZE; bi++) {
+                    sample3D(cube, ri / (TABLE_SIZE - 1f), gi / (TABLE_SIZE - 1f), bi / (TABLE_SIZE - 1f), rgb);
+                    table[ri * STEP_R + gi * STEP_G + bi] =
+                            (toTableLevel(finish(rgb[0], red, gamma)) << 20)
+                            | (toTableLevel(finish(rgb[1], green, gamma)) << 10)
+                            | toTableLevel(finish(rgb[2], blue, gamma));
+                }
+            }
+        }
+        return new ColorLUT(table, null, lattice, weight);
+    }
+
+    private static float finish(float x, float gain, float gamma) {
+        x = Math.max(0f, Math.min(1f, x * gain));
+        return (gamma == 1f) ? x : (float) Math.pow(x, gamma);
+    }
+
+    private static int toByte(float x) {
+        return Math.max(0, Math.min(255, Math.round(x * 255f)));
+    }
+
+    private static int toTableLevel(float x) {
+        return Math.round(x * TABLE_SCALE);
+    }
+
+    private static float sample1D(Cube cube, int channel, float x) {
+        float range = cube.domainMax[channel] - cube.domainMin[channel];
+        float f = (range > 0) ? (x - cube.domainMin[channel]) / range * (cube.size - 1) : 0;
+        f = Math.max(0, Math.min(cube.size - 1, f));
+        int i0 = Math.min(cube.size - 2, (int) f);
+        float t = f - i0;
+        return cube.values[i0 * 3 + channel] * (1 - t) + cube.values[(i0 + 1) * 3 + channel] * t;
+    }
+
+    /**
+     * Trilinear interpolation of a 3D cube at the given input color.
+     */
+    private static void sample3D(Cube cube, float r, float g, float b, float[] out) {
+        final int n = cube.size;
+        float[] in = { r, g, b };
+        int[] i0 = new int[3];
+        float[] t = new float[3];
+        for (int c = 0; c < 3; c++) {
+            float range = cube.domainMax[c] - cube.domainMin[c];
+            float f = (range > 0) ? (in[c] - cube.domainMin[c]) / range * (n - 1) : 0;
+            f = Math.max(0, Math.min(n - 1, f));
+            i0[c] = Math.min(n - 2, (int) f);
+            t[c] = f - i0[c];
+        }
+        Arrays.fill(out, 0f);
+        for (int corner = 0; corner < 8; corner++) {
+            int dr = corner & 1;
+            int dg = (corner >> 1) & 1;
+            int db = (corner >> 2) & 1;
+            float weight = (dr == 1 ? t[0] : 1 - t[0]) * (dg == 1 ? t[1] : 1 - t[1]) * (db == 1 ? t[2] : 1 - t[2]);
+            int offset = 3 * ((i0[0] + dr) + (i0[1] + dg) * n + (i0[2] + db) * n * n);
+            out[0] += weight * cube.values[offset];
+            out[1] += weight * cube.values[offset + 1];
+            out[2] += weight * cube.values[offset + 2];
+        }
+    }
+
+    /**
+     * Parse an Adobe/Resolve .cube file containing either a 1D or a 3D LUT.
+     */
+    static public Cube parseCube(File file) throws IOException {
+        int size = 0;
+        boolean is3D = false;
+        float[] domainMin = { 0f, 0f, 0f };
+        float[] domainMax = { 1f, 1f, 1f };
+        float[] values = null;
+        int count = 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                try {
+                    switch (tokens[0]) {
+                        case "TITLE":
+                            break;
+                        case "LUT_1D_SIZE":
+                        case "LUT_3D_SIZE":
+                            if (values != null) {
+                                throw new IOException("Multiple LUT sizes in " + file);
+                            }
+                            is3D = tokens[0].equals("LUT_3D_SIZE");
+                            size = Integer.parseInt(tokens[1]);
+                            if (size < 2 || size > (is3D ? 256 : 65536)) {
+                                throw new IOException("Unsupported LUT size " + size + " in " + file);
+                            }
+                            values = new float[3 * (is3D ? size * size * size : size)];
+                            break;
+                        case "DOMAIN_MIN":
+                            parseTriple(tokens, 1, domainMin);
+                            break;
+                        case "DOMAIN_MAX":
+                            parseTriple(tokens, 1, domainMax);
+                            break;
+                        case "LUT_1D_INPUT_RANGE":
+                        case "LUT_3D_INPUT_RANGE":
+                            Arrays.fill(domainMin, Float.parseFloat(tokens[1]));
+                            Arrays.fill(domainMax, Float.parseFloat(tokens[2]));
+                            break;
+                        default:
+                            if (!isNumber(tokens[0])) {
+                                // Keyword we don't use, such as LUT_IN_VIDEO_RANGE
+                                break;
+                            }
+                            if (values == null) {
+                                throw new IOException("Data before LUT size in " + file);
+                            }
+                            if (count * 3 >= values.length) {
+                                throw new IOException("Too many entries in " + file);
+                            }
+                            parseTriple(tokens, 0, values, count * 3);
+                            count++;
+                            break;
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Invalid line " + lineNumber + " in " + file + ": " + line);
+                }
+            }
+        }
+
+        if (values == null || count * 3 != values.length) {
+            throw new IOException("Incomplete LUT in " + file);
+        }
+        return new Cube(size, is3D, domainMin, domainMax, values);
+    }
+
+    private static boolean isNumber(String token) {
+        char c = token.charAt(0);
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+    private static void parseTriple(String[] tokens, int from, float[] out) {
+        parseTriple(tokens, from, out, 0);
+    }
+
+    private static void parseTriple(String[] tokens, int from, float[] out, int offset) {
+        out[offset] = Float.parseFloat(tokens[from]);
+        out[offset + 1] = Float.parseFloat(tokens[from + 1]);
+        out[offset + 2] = Float.parseFloat(tokens[from + 2]);
+    }
+}
@@ -0,0 +1,33 @@
+package xyz.theforks.ckndi;
+
+/**
+ * Division of the model's uv space into cells, each fed by its own source.
+ * Source 1 is the top-left cell, followed left to right then top to bottom.
+ */
+public enum MosaicLayout {
+    SINGLE("Single", 1, 1),
+    SIDE_BY_SIDE("2 Across", 2, 1),
+    STACKED("2 Stacked", 1, 2),
+    GRID("2x2", 2, 2),
+    ROW("4 Across", 4, 1),
+    COLUMN("4 Stacked", 1, 4);
+
+    public final String label;
+    public final int columns;
+    public final int rows;
+
+    MosaicLayout(String label, int columns, int rows) {
+        this.label = label;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public int sources() {
+        return columns * rows;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
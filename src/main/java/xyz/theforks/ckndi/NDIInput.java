@@ -0,0 +1,113 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+import me.walkerknapp.devolay.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * One NDI receiver, polled on the shared decode pool.
+ */
+public class NDIInput extends VideoInput {
+
+    // Delay before polling again when no frame was available
+    private static final long IDLE_POLL_MS = 5;
+
+    public static final boolean VERBOSE = false;
+
+    private final DevolayReceiver receiver;
+    private final DevolayVideoFrame videoFrame = new DevolayVideoFrame();
+
+    // Only touched by the polling task
+    private long lastLogTime = System.currentTimeMillis();
+
+    public NDIInput(DevolaySource source) {
+        super(source.getSourceName());
+
+        // Create receiver with default settings (like in example)
+        receiver = new DevolayReceiver(DevolayReceiver.ColorFormat.BGRX_BGRA,
+                DevolayReceiver.RECEIVE_BANDWIDTH_HIGHEST,
+                true, "CkNDI");
+
+        // Connect to the selected source (like in example)
+        receiver.connect(source);
+    }
+
+    @Override
+    protected void close() {
+        try {
+            receiver.close();
+        } catch (Throwable e) {
+            LX.error(e, "Error closing NDI receiver");
+        }
+        videoFrame.close();
+    }
+
+    @Override
+    protected long poll() {
+        try {
+            DevolayFrameType frameType = receiver.receiveCapture(videoFrame, null, null, 0);
+
+            if (frameType == DevolayFrameType.VIDEO) {
+                long currentTime = System.currentTimeMillis();
+
+                // Log every 30 frames or every 5 seconds
+                if ((frameSequence + 1) % 30 == 0 || (currentTime - lastLogTime > 5000)) {
+                    if (VERBOSE) {
+                        LX.log("Received NDI video frame #" + (frameSequence + 1) + " from " + sourceName
+                                + ", resolution: " + videoFrame.getXResolution() + "x" + videoFrame.getYResolution());
+                    }
+                    lastLogTime = currentTime;
+                }
+
+                processVideoFrame(videoFrame);
+            } else if (frameType == DevolayFrameType.NONE) {
+                // No frame available - poll again shortly
+                if (frameSequence == 0) {
+                    // Log only if we haven't received any frames yet
+                    long currentTime = System.currentTimeMillis();
+                    if (currentTime - lastLogTime > 2000) {
+                        LX.log("Still waiting for NDI frames from " + sourceName + " (no data available)...");
+                        lastLogTime = currentTime;
+                    }
+                }
+                return IDLE_POLL_MS;
+            } else {
+                // Connection lost or other error
+                LX.log("NDI receive unexpected frame type: " + frameType);
+            }
+        } catch (IllegalArgumentException e) {
+            if (e.getMessage() != null && e.getMessage().contains("Unknown frame type id")) {
+                // Devolay doesn't recognize this frame type - continue receiving
+                if (VERBOSE)
+                    LX.log("Devolay unknown frame type (continuing): " + e.getMessage());
+            } else {
+                LX.error(e, "IllegalArgumentException receiving from " + sourceName);
+                return -1;
+            }
+        } catch (Exception e) {
+            LX.error(e, "Error receiving from " + sourceName);
+            return -1;
+        }
+        return 0;
+    }
+
+    private void processVideoFrame(DevolayVideoFrame videoFrame) {
+        try {
+            boolean hasAlpha = videoFrame.getFourCCType() == DevolayFrameFourCCType.BGRA;
+            ByteBuffer frameData = videoFrame.getData();
+            if (frameData == null)
+                return;
+            BufferedImage image = convertFrame(frameData, frameData.position(), videoFrame.getXResolution(),
+                    videoFrame.getYResolution(), videoFrame.getLineStride(), hasAlpha);
+            if (image != null) {
+                // The UTC time the sender submitted the frame.  The timecode
+                // is whatever the sender chose, often not wall clock.
+                publishFrame(image, videoFrame.getTimestamp());
+            }
+        } catch (Exception e) {
+            LX.error(e, "Error processing NDI video frame");
+        }
+    }
+}
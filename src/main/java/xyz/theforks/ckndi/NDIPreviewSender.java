@@ -0,0 +1,135 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+import me.walkerknapp.devolay.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes rendered point colors as an NDI video stream, drawn at their uv
+ * positions by a PreviewRaster so a monitor shows what the LEDs are showing.
+ * The engine
+ * only copies the colors into a snapshot, and only when the previous frame has
+ * been sent, so submit() never blocks.  Rasterizing and sending happen on a
+ * background thread into a direct buffer that is reused for every frame.
+ */
+public class NDIPreviewSender {
+
+    private final String name;
+    private final BackgroundWorker<Void> worker;
+    // Set while the worker owns the snapshot
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    private long lastSubmitNanos = 0;
+
+    // Written by the engine while idle, read by the worker while busy
+    private int[] snapshot = null;
+    private UVMap snapshotMap = null;
+    private int snapshotWidth;
+    private int snapshotHeight;
+    private double snapshotFps;
+
+    // Only touched by the worker thread
+    private DevolaySender sender = null;
+    private DevolayVideoFrame videoFrame = null;
+    private ByteBuffer buffer = null;
+    private IntBuffer pixels = null;
+    private int[] frame = null;
+    private int width = 0;
+    private int height = 0;
+    private PreviewRaster raster = null;
+    private long framesSent = 0;
+
+    public NDIPreviewSender(String name, String threadName) {
+        this.name = name;
+        // Frames are dropped rather than coalesced, see submit()
+        worker = new BackgroundWorker<>(threadName);
+    }
+
+    /**
+     * Hand a frame of colors to the sender if one is due at the given rate and
+     * the previous frame has been sent, otherwise do nothing.  Must be called
+     * from the engine thread.
+     */
+    public void submit(int[] colors, UVMap map, int width, int height, double fps) {
+        long now = System.nanoTime();
+        if (now - lastSubmitNanos < (long) (1e9 / fps) || !busy.compareAndSet(false, true)) {
+            return;
+        }
+        lastSubmitNanos = now;
+        if (snapshot == null || snapshot.length != colors.length) {
+            snapshot = new int[colors.length];
+        }
+        System.arraycopy(colors, 0, snapshot, 0, colors.length);
+        snapshotMap = map;
+        snapshotWidth = width;
+        snapshotHeight = height;
+        snapshotFps = fps;
+        if (!worker.execute(this::send)) {
+            busy.set(false);
+        }
+    }
+
+    /**
+     * Close the NDI sender once any frame in progress has been sent.
+     */
+    public void dispose() {
+        worker.execute(this::close);
+        worker.dispose(false);
+    }
+
+    private void send() {
+        try {
+            if (sender == null) {
+                sender = new DevolaySender(name);
+                videoFrame = new DevolayVideoFrame();
+                LX.log("NDI preview output started: " + name);
+            }
+            if (buffer == null || width != snapshotWidth || height != snapshotHeight) {
+                width = snapshotWidth;
+                height = snapshotHeight;
+                buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+                pixels = buffer.asIntBuffer();
+                frame = new int[width * height];
+                raster = null;
+                videoFrame.setResolution(width, height);
+                videoFrame.setFourCCType(DevolayFrameFourCCType.BGRA);
+                videoFrame.setLineStride(width * 4);
+                videoFrame.setData(buffer);
+            }
+            // Nobody is watching, skip the work
+            if (sender.getConnectionCount(0) == 0) {
+                return;
+            }
+            videoFrame.setFrameRate((int) Math.round(snapshotFps * 1000), 1000);
+            if (raster == null || raster.map != snapshotMap) {
+                raster = new PreviewRaster(snapshotMap, width, height);
+            }
+            raster.draw(snapshot, frame);
+
+            // ARGB ints written little endian are BGRA bytes
+            pixels.put(0, frame);
+            sender.sendVideoFrame(videoFrame);
+            framesSent++;
+        } catch (Throwable t) {
+            LX.error(t, "Error sending NDI preview frame");
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    private void close() {
+        if (sender != null) {
+            try {
+                sender.close();
+            } catch (Throwable e) {
+                LX.error(e, "Error closing NDI preview sender");
+            }
+            videoFrame.close();
+            sender = null;
+            LX.log("NDI preview output closed: " + name + ". Total frames sent: " + framesSent);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package xyz.theforks.ckndi;
+
+import java.util.Arrays;
+
+/**
+ * Draws point colors into an image at their uv positions for the preview
+ * output.  Each pixel takes the color of the nearest point within a radius of
+ * about the average point spacing, so a rig of a few hundred points fills the
+ * image rather than showing as scattered dots, while areas with no points stay
+ * transparent black.  The nearest point of every pixel is found once per map
+ * and image size, drawing a frame is then one lookup per pixel.
+ */
+public class PreviewRaster {
+
+    // Largest radius in pixels, so that a handful of points don't turn into
+    // huge blocks
+    static final int MAX_RADIUS = 48;
+
+    public final UVMap map;
+    public final int width;
+    public final int height;
+    // Map entry drawn at each pixel, row major, -1 for none
+    private final int[] pixelEntry;
+
+    public PreviewRaster(UVMap map, int width, int height) {
+        this.map = map;
+        this.width = width;
+        this.height = height;
+        this.pixelEntry = new int[width * height];
+        Arrays.fill(pixelEntry, -1);
+
+        final int n = map.size();
+        final int radius = radius(n, width, height);
+        final float radiusSq = radius * radius;
+        final float[] distanceSq = new float[width * height];
+        Arrays.fill(distanceSq, Float.MAX_VALUE);
+        for (int i = 0; i < n; i++) {
+            // v increases upwards, image rows downwards
+            float cx = map.u[i] * (width - 1);
+            float cy = (1f - map.v[i]) * (height - 1);
+            int x0 = Math.max(0, (int) Math.floor(cx - radius));
+            int x1 = Math.min(width - 1, (int) Math.ceil(cx + radius));
+            int y0 = Math.max(0, (int) Math.floor(cy - radius));
+            int y1 = Math.min(height - 1, (int) Math.ceil(cy + radius));
+            for (int y = y0; y <= y1; y++) {
+                float dy = y - cy;
+                int row = y * width;
+                for (int x = x0; x <= x1; x++) {
+                    float dx = x - cx;
+                    float d = dx * dx + dy * dy;
+                    if (d <= radiusSq && d < distanceSq[row + x]) {
+                        distanceSq[row + x] = d;
+                        pixelEntry[row + x] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw point colors, indexed by LXPoint index, into width * height ARGB
+     * pixels.
+     */
+    public void draw(int[] colors, int[] pixels) {
+        final int[] index = map.index;
+        for (int p = 0; p < pixelEntry.length; p++) {
+            int entry = pixelEntry[p];
+            pixels[p] = (entry >= 0 && index[entry] < colors.length) ? colors[index[entry]] : 0;
+        }
+    }
+
+    /**
+     * About the spacing in pixels of n points spread evenly over the image.
+     */
+    static int radius(int n, int width, int height) {
+        double spacing = Math.sqrt((double) width * height / Math.max(1, n));
+        return Math.max(1, Math.min(MAX_RADIUS, (int) Math.ceil(spacing)));
+    }
+}
@@ -0,0 +1,103 @@
+package xyz.theforks.ckndi;
+
+/**
+ * Watches how long rendering takes relative to a per-frame budget.  When the
+ * smoothed render time stays over budget the quality is stepped down one level,
+ * and when there is sustained headroom it is stepped back up.
+ */
+public class QualityGovernor {
+
+    /**
+     * Quality levels, from best to cheapest.  Each level keeps the savings of
+     * the levels above it.
+     */
+    public enum Level {
+        FULL("Full", true, false, false),
+        NEAREST("Nearest", false, false, false),
+        HALF_RATE("Half Rate", false, true, false),
+        INTERLEAVED("Interleaved", false, true, true);
+
+        public final String label;
+        // Bilinear sampling is allowed if the user enabled it
+        public final boolean bilinear;
+        // Only render on every other engine tick
+        public final boolean halfRate;
+        // Each render only updates alternating halves of the points
+        public final boolean interleaved;
+
+        Level(String label, boolean bilinear, boolean halfRate, boolean interleaved) {
+            this.label = label;
+            this.bilinear = bilinear;
+            this.halfRate = halfRate;
+            this.interleaved = interleaved;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Smoothing factor for the moving average of render time
+    private static final double AVERAGE_ALPHA = 0.1;
+    // Step up only when well under budget.  Each level roughly halves the cost, so
+    // stepping up from just under budget would immediately put us back over.
+    private static final double HEADROOM = 0.4;
+    // How long we must stay over/under budget before changing level
+    private static final double STEP_DOWN_AFTER_MS = 250;
+    private static final double STEP_UP_AFTER_MS = 2000;
+
+    private Level level = Level.FULL;
+    private double averageMs = 0;
+    private double overMs = 0;
+    private double underMs = 0;
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public double getAverageMs() {
+        return averageMs;
+    }
+
+    /**
+     * Record the render time of one engine tick.  Ticks that were skipped should
+     * be reported with a render time of 0 so the average reflects the per-tick cost.
+     *
+     * @return true if the quality level changed
+     */
+    public boolean update(double renderMs, double deltaMs, double budgetMs) {
+        averageMs += (renderMs - averageMs) * AVERAGE_ALPHA;
+
+        if (averageMs > budgetMs) {
+            overMs += deltaMs;
+            underMs = 0;
+        } else if (averageMs < budgetMs * HEADROOM) {
+            underMs += deltaMs;
+            overMs = 0;
+        } else {
+            overMs = 0;
+            underMs = 0;
+        }
+
+        Level[] levels = Level.values();
+        if (overMs >= STEP_DOWN_AFTER_MS && level.ordinal() < levels.length - 1) {
+            level = levels[level.ordinal() + 1];
+            overMs = 0;
+            return true;
+        }
+        if (underMs >= STEP_UP_AFTER_MS && level.ordinal() > 0) {
+            level = levels[level.ordinal() - 1];
+            underMs = 0;
+            return true;
+        }
+        return false;
+    }
+
+    public void reset() {
+        level = Level.FULL;
+        averageMs = 0;
+        overMs = 0;
+        underMs = 0;
+    }
+}
@@ -0,0 +1,236 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frames written by another process on the same machine to a memory-mapped
+ * file, usually in /dev/shm.  Source names are "shm:" followed by the file path,
+ * a bare file name is looked up in /dev/shm.
+ *
+ * File layout, little endian:
+ *   int magic, int version, int width, int height, int format, int stride,
+ *   long sequence, long timestamp, 24 reserved bytes, then height rows of
+ *   stride bytes
+ *
+ * Format 0 is BGRX and 1 is BGRA.  The timestamp is in 100ns units since the
+ * Unix epoch like NDI timestamps, zero if the writer doesn't provide one.
+ * Writers use the sequence as a seqlock: make it odd before touching the
+ * header or pixels and even again once the frame is complete.  The file must
+ * be large enough for the frame before the sequence is made even, and must not
+ * shrink while readers have it open.  A frame is only published if the
+ * sequence was even and unchanged across the read, a torn read is retried.
+ */
+public class ShmInput extends VideoInput {
+
+    public static final String PREFIX = "shm:";
+    public static final String EXTENSION = ".ckframe";
+    private static final String SHM_DIR = "/dev/shm";
+
+    private static final int MAGIC = 0x434B534D; // "CKSM"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SEQUENCE_OFFSET = 24;
+    private static final int TIMESTAMP_OFFSET = 32;
+    private static final int FORMAT_BGRA = 1;
+
+    // Delay before polling again when no new frame was written
+    private static final long IDLE_POLL_MS = 1;
+    // Delay before looking for the file again when it is missing or invalid
+    private static final long OPEN_RETRY_MS = 500;
+
+    private static final VarHandle SEQUENCE =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final File file;
+
+    // Only touched by the polling task.  The channel stays open so the current
+    // file size can be checked before each read.
+    private FileChannel channel = null;
+    private MappedByteBuffer buffer = null;
+    // Identity of the open file, to notice a writer replacing it
+    private Object fileKey = null;
+    private long lastKeyCheckMillis = 0;
+    private long lastSequence = -1;
+    private boolean loggedWaiting = false;
+
+    public ShmInput(String sourceName) {
+        super(sourceName);
+        String path = sourceName.substring(PREFIX.length()).trim();
+        this.file = path.contains(File.separator) ? new File(path) : new File(SHM_DIR, path);
+    }
+
+    static public boolean isShmSource(String sourceName) {
+        return sourceName.startsWith(PREFIX);
+    }
+
+    /**
+     * Source names for the frame files currently in /dev/shm.
+     */
+    static public List<String> listSources() {
+        List<String> sources = new ArrayList<>();
+        File[] files = new File(SHM_DIR).listFiles((d, name) -> name.endsWith(EXTENSION));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                sources.add(PREFIX + f.getPath());
+            }
+        }
+        return sources;
+    }
+
+    @Override
+    protected void close() {
+        // Mappings are released by the garbage collector
+        buffer = null;
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LX.error(e, "Error closing " + file);
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    protected long poll() {
+        try {
+            if (buffer == null && !open()) {
+                return OPEN_RETRY_MS;
+            }
+            // Check the file size before every access.  A fault reading a
+            // truncated mapping from compiled code may surface later and
+            // elsewhere on this thread, so it can't be relied on being caught.
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                close();
+                return OPEN_RETRY_MS;
+            }
+
+            if (takeReconvertRequest()) {
+                // A static producer may never write again, convert what is there
+                lastSequence = -1;
+            }
+            long sequence = (long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET);
+            if ((sequence & 1) != 0 || sequence == lastSequence) {
+                if (isReplaced()) {
+                    // A restarted writer usually unlinks and recreates the file,
+                    // the old one will never change again
+                    LX.log("Shared memory frame file replaced: " + file);
+                    close();
+                    return 0;
+                }
+                return IDLE_POLL_MS;
+            }
+
+            int width = buffer.getInt(8);
+            int height = buffer.getInt(12);
+            boolean hasAlpha = buffer.getInt(16) == FORMAT_BGRA;
+            int stride = Math.max(width * 4, buffer.getInt(20));
+            long timestamp = buffer.getLong(TIMESTAMP_OFFSET);
+            long required = HEADER_BYTES + (long) stride * height;
+            if (required > size) {
+                // Truncated, or not grown yet
+                return IDLE_POLL_MS;
+            }
+            if (required > buffer.capacity()) {
+                // The writer grew the file, map it again
+                if (!open() || required > buffer.capacity()) {
+                    return IDLE_POLL_MS;
+                }
+            }
+
+            BufferedImage image = convertFrame(buffer, HEADER_BYTES, width, height, stride, hasAlpha);
+
+            // Only keep the frame if the writer didn't touch it while we read
+            VarHandle.acquireFence();
+            if ((long) SEQUENCE.getAcquire(buffer, SEQUENCE_OFFSET) != sequence) {
+                return 0;
+            }
+            lastSequence = sequence;
+            if (image != null) {
+                publishFrame(image, timestamp);
+            }
+            return IDLE_POLL_MS;
+        } catch (Exception | InternalError e) {
+            // Most likely the file was truncated or replaced, start over.
+            // Touching a truncated mapping raises InternalError.
+            LX.error(e, "Error reading shared memory frame from " + file);
+            close();
+            return OPEN_RETRY_MS;
+        }
+    }
+
+    private boolean open() throws IOException {
+        close();
+        if (!file.isFile()) {
+            if (!loggedWaiting) {
+                LX.log("Waiting for shared memory frames at " + file);
+                loggedWaiting = true;
+            }
+            return false;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        if (channel.size() < HEADER_BYTES) {
+            closeChannel();
+            return false;
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            if (!loggedWaiting) {
+                LX.error("Not a CkNDI frame file: " + file);
+                loggedWaiting = true;
+            }
+            closeChannel();
+            return false;
+        }
+        buffer = mapped;
+        fileKey = readFileKey();
+        lastKeyCheckMillis = System.currentTimeMillis();
+        lastSequence = -1;
+        loggedWaiting = false;
+        return true;
+    }
+
+    /**
+     * Whether the path no longer refers to the open file.  Only checked every
+     * OPEN_RETRY_MS, and never where the file system has no file keys.
+     */
+    private boolean isReplaced() throws IOException {
+        long now = System.currentTimeMillis();
+        if (fileKey == null || now - lastKeyCheckMillis < OPEN_RETRY_MS) {
+            return false;
+        }
+        lastKeyCheckMillis = now;
+        try {
+            return !fileKey.equals(readFileKey());
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private Object readFileKey() throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+}
@@ -0,0 +1,168 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of computed UVMaps keyed by a hash of the model geometry.
+ * Maps are kept in memory for other CkNDI instances in the same session and
+ * written to ~/Chromatik/CkNDI/uvcache so that reloading a project does not
+ * need to reproject every point.
+ *
+ * File layout, little endian:
+ *   int magic, int version, long key, int count,
+ *   int[count] index, float[count] u, float[count] v
+ */
+public class UVCache {
+
+    private static final int MAGIC = 0x434B5556; // "CKUV"
+    // Bump whenever the file layout or the projection math changes
+    private static final int VERSION = 4;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final int MAX_FILES = 64;
+    private static final String EXTENSION = ".uv";
+
+    private static final Map<Long, SoftReference<UVMap>> memory = new ConcurrentHashMap<>();
+
+    private static File getCacheDir() {
+        return new File(System.getProperty("user.home"), "Chromatik" + File.separator + "CkNDI" + File.separator + "uvcache");
+    }
+
+    /**
+     * Cache key for a set of points, covering their coordinates, their LX point
+     * indices, their grouping into fixtures, the projection and the cache
+     * version.
+     */
+    static public long computeKey(float[] xyz, int[] index, int[] segmentEnds, UVProjection projection) {
+        long hash = UVUtil.hashPoints(xyz, 0, index.length);
+        for (int i : index) {
+            hash ^= i;
+            hash *= 0x100000001b3L;
+        }
+        // Per fixture maps depend on which points belong to which fixture
+        for (int end : segmentEnds) {
+            hash ^= end;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= projection.ordinal();
+        hash *= 0x100000001b3L;
+        return hash ^ VERSION;
+    }
+
+    /**
+     * Returns the cached map for the key, or null if there isn't a valid one.
+     * Cached maps are in render order, the point indices themselves are covered
+     * by the key.
+     */
+    static public UVMap load(long key, int expectedCount) {
+        SoftReference<UVMap> ref = memory.get(key);
+        UVMap map = (ref != null) ? ref.get() : null;
+        if (map != null && map.size() == expectedCount) {
+            return map;
+        }
+
+        File file = new File(getCacheDir(), fileName(key));
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != key) {
+                return null;
+            }
+            int count = buffer.getInt();
+            if (count != expectedCount || buffer.remaining() != count * 12L) {
+                return null;
+            }
+            int[] index = new int[count];
+            float[] u = new float[count];
+            float[] v = new float[count];
+            buffer.asIntBuffer().get(index);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asFloatBuffer().get(u);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asFloatBuffer().get(v);
+            map = new UVMap(index, u, v);
+            memory.put(key, new SoftReference<>(map));
+            return map;
+        } catch (IOException e) {
+            LX.error(e, "Error reading UV cache " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Store a map.  The file is written to a temporary name and moved into place
+     * so other instances never read a partial file.
+     */
+    static public void save(long key, UVMap map) {
+        memory.put(key, new SoftReference<>(map));
+
+        File dir = getCacheDir();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LX.error("Could not create UV cache directory " + dir);
+            return;
+        }
+
+        int count = map.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * 12).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(key).putInt(count);
+        buffer.asIntBuffer().put(map.index);
+        buffer.position(buffer.position() + count * 4);
+        buffer.asFloatBuffer().put(map.u);
+        buffer.position(buffer.position() + count * 4);
+        buffer.asFloatBuffer().put(map.v);
+        buffer.rewind();
+
+        Path target = new File(dir, fileName(key)).toPath();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(dir.toPath(), "uv", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            prune(dir);
+        } catch (IOException e) {
+            LX.error(e, "Error writing UV cache " + target);
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+
+    private static String fileName(long key) {
+        return String.format("%016x", key) + EXTENSION;
+    }
+
+    // Keep only the most recently written files
+    private static void prune(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package xyz.theforks.ckndi;
+
+/**
+ * Computed uv coordinates for a model, stored as parallel primitive arrays.
+ * Entry i maps LXPoint index[i] to (u[i], v[i]).  Coordinates are normalized
+ * to the 0..1 range in each dimension.  Entries are sorted along a Z-order
+ * curve of their uv coordinates rather than by point index, so consecutive
+ * entries sample nearby source pixels.  A UVMap is never modified once it has
+ * been published, a model change produces a new one.
+ */
+public class UVMap {
+    public final int[] index;
+    public final float[] u;
+    public final float[] v;
+
+    public UVMap(int[] index, float[] u, float[] v) {
+        this.index = index;
+        this.u = u;
+        this.v = v;
+    }
+
+    public int size() {
+        return index.length;
+    }
+}
@@ -0,0 +1,357 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Computes UVMaps on a background thread so that model changes never stall the
+ * engine.  The renderer keeps using the previous map until the new one is
+ * published.  Requests made while a computation is running are coalesced, only
+ * the most recent model snapshot is computed.
+ *
+ * Projected coordinates are cached per fixture keyed by a hash of the fixture's
+ * geometry, so after an edit only the fixtures that moved are reprojected.  If
+ * a whole-model input to the projection changes (plane rotation, model center)
+ * everything is recomputed.  The fitted plane is kept when a refit only differs
+ * by rounding, so moving fixtures within a planar rig stays incremental, but
+ * any edit that moves the model centroid reprojects a whole cylinder or
+ * sphere.  Projection runs in parallel on the common
+ * ForkJoinPool.  Finished maps are stored in the UVCache, so a model that has
+ * been seen before is loaded rather than computed.
+ */
+public class UVMapper {
+
+    /**
+     * Copy of the model geometry, taken on the engine thread so the worker never
+     * reads LXPoints that the engine may be rebuilding.
+     */
+    static class Snapshot {
+        final float[] xyz;
+        final int[] index;
+        // Exclusive end offset of each fixture's points
+        final int[] segmentEnds;
+        final UVProjection projection;
+
+        Snapshot(LXModel model, UVProjection projection) {
+            this.projection = projection;
+            LXPoint[] points = model.points;
+            xyz = new float[points.length * 3];
+            index = new int[points.length];
+            for (int i = 0; i < points.length; i++) {
+                xyz[i * 3] = points[i].x;
+                xyz[i * 3 + 1] = points[i].y;
+                xyz[i * 3 + 2] = points[i].z;
+                index[i] = points[i].index;
+            }
+            segmentEnds = fixtureSegments(model);
+        }
+
+        /**
+         * Split the model's points by child fixture.  This relies on the parent's
+         * points being the concatenation of its children's points, if that isn't
+         * the case the whole model is treated as one fixture.
+         */
+        static int[] fixtureSegments(LXModel model) {
+            LXModel[] children = model.children;
+            if (children != null && children.length > 1) {
+                int[] ends = new int[children.length];
+                int offset = 0;
+                boolean contiguous = true;
+                for (int c = 0; c < children.length && contiguous; c++) {
+                    LXPoint[] childPoints = children[c].points;
+                    if (childPoints.length > 0) {
+                        contiguous = offset + childPoints.length <= model.points.length
+                                && model.points[offset] == childPoints[0];
+                    }
+                    offset += childPoints.length;
+                    ends[c] = offset;
+                }
+                if (contiguous && offset == model.points.length) {
+                    return ends;
+                }
+            }
+            return new int[] { model.points.length };
+        }
+    }
+
+    private final BackgroundWorker<Snapshot> worker;
+    private volatile UVMap map = null;
+
+    // Points per parallel work unit
+    private static final int CHUNK_SIZE = 16384;
+    // Relative change below which a refitted whole-model parameter is treated as
+    // unchanged, well above the noise of refitting the same plane
+    private static final float PARAMETER_TOLERANCE = 1e-5f;
+
+    // Incremental state, only touched by the worker thread
+    private float[] lastParameters = null;
+    private Map<Long, float[]> segmentCache = new HashMap<>();
+
+    public UVMapper(String threadName) {
+        worker = new BackgroundWorker<>(threadName, this::computeSnapshot);
+    }
+
+    /**
+     * The most recently computed map, or null if none has been computed yet.
+     */
+    public UVMap getMap() {
+        return map;
+    }
+
+    /**
+     * Snapshot the model and schedule a recompute.  Must be called from the
+     * engine thread.
+     */
+    public void requestUpdate(LXModel model, UVProjection projection) {
+        worker.submit(new Snapshot(model, projection));
+    }
+
+    public void dispose() {
+        worker.dispose(true);
+    }
+
+    private void computeSnapshot(Snapshot snapshot) {
+        try {
+            long key = UVCache.computeKey(snapshot.xyz, snapshot.index, snapshot.segmentEnds, snapshot.projection);
+            UVMap cached = UVCache.load(key, snapshot.index.length);
+            if (cached != null) {
+                map = cached;
+                return;
+            }
+            UVMap computed = compute(snapshot);
+            map = computed;
+            UVCache.save(key, computed);
+        } catch (Exception e) {
+            LX.error(e, "Error computing UVs");
+        }
+    }
+
+    private UVMap compute(Snapshot snapshot) {
+        final int n = snapshot.index.length;
+        final float[] xyz = snapshot.xyz;
+        final UVProjection projection = snapshot.projection;
+        float[] u = new float[n];
+        float[] v = new float[n];
+        if (n == 0) {
+            return new UVMap(snapshot.index, u, v);
+        }
+
+        // Whole-model inputs to the projection.  The first entry is the projection
+        // so that switching modes invalidates the cached fixtures.
+        float[] rotation;
+        float[] center;
+        float[] parameters;
+        switch (projection) {
+            case PLANAR:
+                rotation = UVUtil.planeToXYMatrix(UVUtil.computeFittedPlaneNormal(xyz, 0, n));
+                center = null;
+                parameters = (rotation != null) ? new float[10] : new float[1];
+                if (rotation != null) {
+                    System.arraycopy(rotation, 0, parameters, 1, 9);
+                }
+                break;
+            case CYLINDRICAL:
+            case SPHERICAL:
+                rotation = null;
+                center = UVUtil.computeCentroid(xyz, 0, n);
+                parameters = new float[] { 0, center[0], center[1], center[2] };
+                break;
+            default:
+                // Per fixture projection only depends on the fixture itself
+                rotation = null;
+                center = null;
+                parameters = new float[1];
+                break;
+        }
+        parameters[0] = projection.ordinal();
+        if (sameParameters(parameters, lastParameters)) {
+            // Keep projecting with the previous values so cached and newly
+            // projected fixtures agree exactly
+            parameters = lastParameters;
+            if (rotation != null) {
+                rotation = Arrays.copyOfRange(parameters, 1, 10);
+            }
+            if (center != null) {
+                center = Arrays.copyOfRange(parameters, 1, 4);
+            }
+        } else {
+            segmentCache.clear();
+            lastParameters = parameters;
+        }
+        final float[] projectRotation = rotation;
+        final float[] projectCenter = center;
+
+        // Look up every fixture in the cache, collecting the ones to project
+        final int[] segmentEnds = snapshot.segmentEnds;
+        final int segments = segmentEnds.length;
+        final long[] keys = new long[segments];
+        final float[][] projected = new float[segments][];
+        IntStream.range(0, segments).parallel().forEach((s) -> {
+            keys[s] = UVUtil.hashPoints(xyz, segmentStart(segmentEnds, s), segmentEnds[s]);
+        });
+        for (int s = 0; s < segments; s++) {
+            float[] cached = segmentCache.get(keys[s]);
+            int count = segmentEnds[s] - segmentStart(segmentEnds, s);
+            if (cached != null && cached.length == 2 * count) {
+                projected[s] = cached;
+            }
+        }
+
+        if (projection == UVProjection.FIXTURE) {
+            // Each fixture is fitted and normalized on its own
+            IntStream.range(0, segments).parallel().forEach((s) -> {
+                if (projected[s] == null) {
+                    projected[s] = projectFixture(xyz, segmentStart(segmentEnds, s), segmentEnds[s]);
+                }
+            });
+        } else {
+            // Split the fixtures that need projecting into chunks of points
+            List<int[]> chunks = new ArrayList<>();
+            for (int s = 0; s < segments; s++) {
+                if (projected[s] == null) {
+                    int start = segmentStart(segmentEnds, s);
+                    projected[s] = new float[2 * (segmentEnds[s] - start)];
+                    for (int from = start; from < segmentEnds[s]; from += CHUNK_SIZE) {
+                        chunks.add(new int[] { s, from, Math.min(segmentEnds[s], from + CHUNK_SIZE) });
+                    }
+                }
+            }
+            chunks.parallelStream().forEach((chunk) -> {
+                int s = chunk[0];
+                project(projection, xyz, chunk[1], chunk[2], projectRotation, projectCenter,
+                        projected[s], 2 * (chunk[1] - segmentStart(segmentEnds, s)));
+            });
+        }
+
+        Map<Long, float[]> nextCache = new HashMap<>();
+        for (int s = 0; s < segments; s++) {
+            nextCache.put(keys[s], projected[s]);
+            int start = segmentStart(segmentEnds, s);
+            for (int i = start; i < segmentEnds[s]; i++) {
+                u[i] = projected[s][2 * (i - start)];
+                v[i] = projected[s][2 * (i - start) + 1];
+            }
+        }
+        segmentCache = nextCache;
+
+        if (projection != UVProjection.FIXTURE) {
+            UVUtil.renormalizeUVs(u, v);
+        }
+        return sortByMortonOrder(snapshot.index, u, v);
+    }
+
+    /**
+     * Reorder the map along a Z-order curve of the uv coordinates, so that
+     * rendering in map order samples nearby source pixels consecutively instead
+     * of jumping around the frame in model order.
+     */
+    private static UVMap sortByMortonOrder(int[] index, float[] u, float[] v) {
+        final int n = index.length;
+        // Morton code in the high bits, original position in the low bits
+        long[] keys = new long[n];
+        IntStream.range(0, n).parallel().forEach((i) -> {
+            keys[i] = ((UVUtil.mortonCode(u[i], v[i]) & 0xFFFFFFFFL) << 32) | i;
+        });
+        Arrays.parallelSort(keys);
+
+        int[] sortedIndex = new int[n];
+        float[] sortedU = new float[n];
+        float[] sortedV = new float[n];
+        for (int k = 0; k < n; k++) {
+            int i = (int) keys[k];
+            sortedIndex[k] = index[i];
+            sortedU[k] = u[i];
+            sortedV[k] = v[i];
+        }
+        return new UVMap(sortedIndex, sortedU, sortedV);
+    }
+
+    private static boolean sameParameters(float[] a, float[] b) {
+        if (b == null || a.length != b.length || a[0] != b[0]) {
+            return false;
+        }
+        for (int i = 1; i < a.length; i++) {
+            if (Math.abs(a[i] - b[i]) > PARAMETER_TOLERANCE * Math.max(1f, Math.abs(b[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int segmentStart(int[] segmentEnds, int segment) {
+        return (segment == 0) ? 0 : segmentEnds[segment - 1];
+    }
+
+    /**
+     * Project points [from, to) into out starting at offset, as raw u, v pairs.
+     */
+    private static void project(UVProjection projection, float[] xyz, int from, int to,
+                                float[] rotation, float[] center, float[] out, int offset) {
+        final float twoPi = (float) (2 * Math.PI);
+        for (int i = from; i < to; i++) {
+            float x = xyz[i * 3];
+            float y = xyz[i * 3 + 1];
+            float z = xyz[i * 3 + 2];
+            int o = offset + 2 * (i - from);
+            switch (projection) {
+                case CYLINDRICAL: {
+                    // Seam is behind the center, u increases counter-clockwise seen from above
+                    out[o] = (float) Math.atan2(x - center[0], z - center[2]) / twoPi + 0.5f;
+                    out[o + 1] = y;
+                    break;
+                }
+                case SPHERICAL: {
+                    float dx = x - center[0];
+                    float dy = y - center[1];
+                    float dz = z - center[2];
+                    float r = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                    out[o] = (float) Math.atan2(dx, dz) / twoPi + 0.5f;
+                    // Elevation, increasing upwards like the planar v
+                    out[o + 1] = (r > 0) ? (float) Math.asin(Math.max(-1, Math.min(1, dy / r))) : 0;
+                    break;
+                }
+                default:
+                    if (rotation != null) {
+                        out[o] = rotation[0] * x + rotation[1] * y + rotation[2] * z;
+                        out[o + 1] = rotation[3] * x + rotation[4] * y + rotation[5] * z;
+                    } else {
+                        // No rotation needed, use original coordinates
+                        out[o] = x;
+                        out[o + 1] = y;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Project one fixture onto its own fitted plane, normalized to 0..1.
+     */
+    private static float[] projectFixture(float[] xyz, int from, int to) {
+        int count = to - from;
+        float[] rotation = UVUtil.planeToXYMatrix(UVUtil.computeFittedPlaneNormal(xyz, from, to));
+        float[] out = new float[2 * count];
+        project(UVProjection.PLANAR, xyz, from, to, rotation, null, out, 0);
+
+        float[] u = new float[count];
+        float[] v = new float[count];
+        for (int i = 0; i < count; i++) {
+            u[i] = out[2 * i];
+            v[i] = out[2 * i + 1];
+        }
+        UVUtil.renormalizeUVs(u, v);
+        for (int i = 0; i < count; i++) {
+            out[2 * i] = u[i];
+            out[2 * i + 1] = v[i];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,26 @@
+package xyz.theforks.ckndi;
+
+/**
+ * How model points are projected to uv coordinates.
+ */
+public enum UVProjection {
+    // Whole model onto its least squares fitted plane
+    PLANAR("Planar"),
+    // Angle around the vertical axis through the model center, and height
+    CYLINDRICAL("Cylinder"),
+    // Angle around the vertical axis, and elevation angle from the model center
+    SPHERICAL("Sphere"),
+    // Each fixture onto its own fitted plane, each covering the whole image
+    FIXTURE("Per Fixture");
+
+    public final String label;
+
+    UVProjection(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -1,7 +1,5 @@
 package xyz.theforks.ckndi;
 
-import heronarts.lx.model.LXModel;
-import heronarts.lx.model.LXPoint;
 import heronarts.lx.transform.LXMatrix;
 
 public class UVUtil {
@@ -54,21 +52,220 @@ public class UVUtil {
         return new float[] {axis[0], axis[1], axis[2], angle};
     }
 
-    static public float[] computePlaneNormal(LXModel model) {
-        // Compute the plane normal for the model
-        // Compute the plane normal for the model
-        LXPoint p0 = model.points[0];
-        LXPoint p1 = model.points[model.points.length/2];
-        LXPoint p2 = model.points[model.points.length-1];
-        float[] v1 = {p1.x - p0.x, p1.y - p0.y, p1.z - p0.z};
-        float[] v2 = {p2.x - p0.x, p2.y - p0.y, p2.z - p0.z};
-        float[] normal = new float[3];
-        normal[0] = v1[1] * v2[2] - v1[2] * v2[1];
-        normal[1] = v1[2] * v2[0] - v1[0] * v2[2];
-        normal[2] = v1[0] * v2[1] - v1[1] * v2[0];
+    /**
+     * Normal of the least squares plane through points [from, to), which is the
+     * eigenvector of the points' covariance with the smallest eigenvalue.  The
+     * sign is chosen to face +Z, or +Y then +X for planes parallel to those axes,
+     * so that the projection doesn't flip depending on point order.
+     */
+    static public float[] computeFittedPlaneNormal(float[] xyz, int from, int to) {
+        int n = Math.max(1, to - from);
+        double cx = 0, cy = 0, cz = 0;
+        for (int i = from * 3; i < to * 3; i += 3) {
+            cx += xyz[i];
+            cy += xyz[i + 1];
+            cz += xyz[i + 2];
+        }
+        cx /= n;
+        cy /= n;
+        cz /= n;
+
+        double[][] covariance = new double[3][3];
+        for (int i = from * 3; i < to * 3; i += 3) {
+            double dx = xyz[i] - cx;
+            double dy = xyz[i + 1] - cy;
+            double dz = xyz[i + 2] - cz;
+            covariance[0][0] += dx * dx;
+            covariance[0][1] += dx * dy;
+            covariance[0][2] += dx * dz;
+            covariance[1][1] += dy * dy;
+            covariance[1][2] += dy * dz;
+            covariance[2][2] += dz * dz;
+        }
+        covariance[1][0] = covariance[0][1];
+        covariance[2][0] = covariance[0][2];
+        covariance[2][1] = covariance[1][2];
+
+        double[][] eigenvectors = { {1, 0, 0}, {0, 1, 0}, {0, 0, 1} };
+        jacobiEigen(covariance, eigenvectors);
+        int min = 0;
+        for (int k = 1; k < 3; k++) {
+            if (covariance[k][k] < covariance[min][min]) {
+                min = k;
+            }
+        }
+        float[] normal = { (float) eigenvectors[0][min], (float) eigenvectors[1][min], (float) eigenvectors[2][min] };
+
+        float sign;
+        if (Math.abs(normal[2]) > 0.0001f) {
+            sign = Math.signum(normal[2]);
+        } else if (Math.abs(normal[1]) > 0.0001f) {
+            sign = Math.signum(normal[1]);
+        } else {
+            sign = (normal[0] < 0) ? -1 : 1;
+        }
+        normal[0] *= sign;
+        normal[1] *= sign;
+        normal[2] *= sign;
         return normal;
     }
 
+    /**
+     * Cyclic Jacobi eigenvalue iteration for a symmetric 3x3 matrix.  On return
+     * the diagonal of a holds the eigenvalues and the columns of v hold the
+     * corresponding eigenvectors.  v should be passed in as the identity.
+     */
+    static private void jacobiEigen(double[][] a, double[][] v) {
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double off = a[0][1] * a[0][1] + a[0][2] * a[0][2] + a[1][2] * a[1][2];
+            double diagonal = a[0][0] * a[0][0] + a[1][1] * a[1][1] + a[2][2] * a[2][2];
+            if (off == 0 || off <= 1e-24 * diagonal) {
+                return;
+            }
+            for (int p = 0; p < 2; p++) {
+                for (int q = p + 1; q < 3; q++) {
+                    if (a[p][q] == 0) {
+                        continue;
+                    }
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = (theta == 0) ? 1 : Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < 3; k++) {
+                        double akp = a[k][p];
+                        double akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double apk = a[p][k];
+                        double aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double vkp = v[k][p];
+                        double vkq = v[k][q];
+                        v[k][p] = c * vkp - s * vkq;
+                        v[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotation matrix that takes a plane with the given unit normal onto the XY
+     * plane, or null if the plane is already parallel to it.
+     */
+    static public float[] planeToXYMatrix(float[] planeNormal) {
+        float[] rotateAxisAngle = computeAxesRotates(planeNormal);
+        float[] rotateAxis = { rotateAxisAngle[0], rotateAxisAngle[1], rotateAxisAngle[2] };
+        float rotateAngle = rotateAxisAngle[3];
+
+        // Only rotate if we have a valid rotation (angle > 0 and valid axis)
+        float axisLength = vectorLength(rotateAxis);
+        if (rotateAngle > 0.0001f && axisLength > 0.0001f) {
+            return axisAngleMatrix(rotateAxis, rotateAngle);
+        }
+        return null;
+    }
+
+    /**
+     * Mean position of points [from, to).
+     */
+    static public float[] computeCentroid(float[] xyz, int from, int to) {
+        int n = Math.max(1, to - from);
+        double cx = 0, cy = 0, cz = 0;
+        for (int i = from * 3; i < to * 3; i += 3) {
+            cx += xyz[i];
+            cy += xyz[i + 1];
+            cz += xyz[i + 2];
+        }
+        return new float[] { (float) (cx / n), (float) (cy / n), (float) (cz / n) };
+    }
+
+    /**
+     * Row major 3x3 rotation matrix equivalent to rotatePointAroundAxis, so the
+     * trig only has to be done once for a whole set of points.
+     */
+    static public float[] axisAngleMatrix(float[] axis, float angle) {
+        float length = vectorLength(axis);
+        float x = axis[0] / length;
+        float y = axis[1] / length;
+        float z = axis[2] / length;
+        float c = (float) Math.cos(angle);
+        float s = (float) Math.sin(angle);
+        float t = 1 - c;
+        return new float[] {
+                c + t * x * x,     t * x * y - s * z, t * x * z + s * y,
+                t * x * y + s * z, c + t * y * y,     t * y * z - s * x,
+                t * x * z - s * y, t * y * z + s * x, c + t * z * z
+        };
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the packed x, y, z coordinates of points [from, to).
+     */
+    static public long hashPoints(float[] xyz, int from, int to) {
+        long hash = 0xcbf29ce484222325L ^ (to - from);
+        for (int i = from * 3; i < to * 3; i++) {
+            hash ^= Float.floatToIntBits(xyz[i]);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 32-bit Z-order (Morton) code of a uv coordinate, quantized to 16 bits per
+     * axis.  u occupies the even bits and v the odd bits.
+     */
+    static public int mortonCode(float u, float v) {
+        int x = (int) (Math.max(0f, Math.min(1f, u)) * 0xFFFF);
+        int y = (int) (Math.max(0f, Math.min(1f, v)) * 0xFFFF);
+        return spreadBits(x) | (spreadBits(y) << 1);
+    }
+
+    // Insert a zero bit between each of the low 16 bits
+    static private int spreadBits(int x) {
+        x &= 0xFFFF;
+        x = (x | (x << 8)) & 0x00FF00FF;
+        x = (x | (x << 4)) & 0x0F0F0F0F;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    /**
+     * Rescale u and v independently to the 0..1 range.  A dimension with no
+     * extent (e.g. v for a single horizontal strip) is placed at 0.5.
+     */
+    static public void renormalizeUVs(float[] u, float[] v) {
+        renormalizeUVs(u, v, 0, u.length);
+    }
+
+    /**
+     * Renormalize only entries [from, to).
+     */
+    static public void renormalizeUVs(float[] u, float[] v, int from, int to) {
+        float uMin = Float.MAX_VALUE;
+        float uMax = -Float.MAX_VALUE;
+        float vMin = Float.MAX_VALUE;
+        float vMax = -Float.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            if (u[i] < uMin) uMin = u[i];
+            if (u[i] > uMax) uMax = u[i];
+            if (v[i] < vMin) vMin = v[i];
+            if (v[i] > vMax) vMax = v[i];
+        }
+        float uRange = uMax - uMin;
+        float vRange = vMax - vMin;
+        for (int i = from; i < to; i++) {
+            u[i] = (uRange > 0) ? (u[i] - uMin) / uRange : 0.5f;
+            v[i] = (vRange > 0) ? (v[i] - vMin) / vRange : 0.5f;
+        }
+    }
+
     static public void rotatePointAroundAxis(float[] point, float[] axis, float angle, float[] rotatedPoint) {
         float[] axisUnit = new float[3];
         float axisLength = (float) Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
@@ -107,6 +304,18 @@ public class UVUtil {
         return result;
     }
 
+    /**
+     * Linear blend of two ARGB colors.  The amount t is the weight of c1 in the
+     * range 0..256.  Red/blue and alpha/green are blended as pairs so the whole
+     * blend is two multiplies per color.
+     */
+    static public int lerpARGB(int c0, int c1, int t) {
+        int s = 256 - t;
+        int rb = ((((c0 & 0xFF00FF) * s) + ((c1 & 0xFF00FF) * t)) >>> 8) & 0xFF00FF;
+        int ag = ((((c0 >>> 8) & 0xFF00FF) * s) + (((c1 >>> 8) & 0xFF00FF) * t)) & 0xFF00FF00;
+        return ag | rb;
+    }
+
     static public int bilinearInterpolateRGB(int c00, int c10, int c01, int c11, float dx, float dy) {
         // Extract ARGB components
         int a00 = (c00 >> 24) & 0xFF;
@@ -0,0 +1,73 @@
+package xyz.theforks.ckndi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * A decoded video frame along with the bookkeeping the renderer needs to
+ * tell frames apart and place them in time.
+ */
+public class VideoFrame {
+    public final BufferedImage image;
+    // Backing ARGB pixels of image, row major
+    public final int[] pixels;
+    public final int width;
+    public final int height;
+    // Increments by one for every frame received from the source.
+    public final long sequence;
+    // System.nanoTime() at the moment the frame was received.
+    public final long receivedNanos;
+    // Source timestamp in 100ns units since the Unix epoch, the NDI timestamp
+    // convention.  Falls back to the wall clock time of receipt.
+    public final long timestamp;
+
+    // Checksum of each square tile of pixels, row major, computed at ingest so
+    // the renderer can tell which parts of the frame changed.
+    public final int[] tileChecksums;
+    public final int tileColumns;
+    public final int tileRows;
+
+    // Inclusive pixel bounds of the part of the image that was converted, the
+    // rest is black
+    public final int regionX0;
+    public final int regionY0;
+    public final int regionX1;
+    public final int regionY1;
+
+    // Timestamp units per millisecond
+    public static final long TICKS_PER_MS = 10000;
+    // Tiles are 32 pixels square
+    public static final int TILE_SHIFT = 5;
+
+    /**
+     * A null region means the whole image was converted.
+     */
+    public VideoFrame(BufferedImage image, long sequence, long receivedNanos, long timestamp, int[] tileChecksums,
+                      int[] region) {
+        this.image = image;
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+        this.timestamp = timestamp;
+        this.tileColumns = tileCount(width);
+        this.tileRows = tileCount(height);
+        this.tileChecksums = tileChecksums;
+        this.regionX0 = (region != null) ? region[0] : 0;
+        this.regionY0 = (region != null) ? region[1] : 0;
+        this.regionX1 = (region != null) ? region[2] : width - 1;
+        this.regionY1 = (region != null) ? region[3] : height - 1;
+    }
+
+    /**
+     * Whether the inclusive {x0, y0, x1, y1} pixel bounds were converted.
+     */
+    public boolean containsRegion(int[] bounds) {
+        return bounds[0] >= regionX0 && bounds[1] >= regionY0 && bounds[2] <= regionX1 && bounds[3] <= regionY1;
+    }
+
+    static public int tileCount(int pixels) {
+        return (pixels + (1 << TILE_SHIFT) - 1) >> TILE_SHIFT;
+    }
+}
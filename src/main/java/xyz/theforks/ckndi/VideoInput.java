@@ -0,0 +1,343 @@
+package xyz.theforks.ckndi;
+
+import heronarts.lx.LX;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A source of video frames and its most recently decoded frame.  Rather than a
+ * blocking thread per source, capture and conversion run as short polling
+ * tasks on a pool shared by every input of every CkNDI instance.  Each input
+ * has at most one task in flight, so subclasses never see poll() called from
+ * two threads at once.
+ */
+public abstract class VideoInput {
+
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ScheduledExecutorService pool = Executors.newScheduledThreadPool(POOL_SIZE, (r) -> {
+        Thread thread = new Thread(r, "CkNDI-Decode-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The converted region is padded by a tile plus this fraction of the frame,
+    // then aligned to tiles, so that most parameter changes stay within the
+    // pixels the held frame already has.
+    private static final int REGION_MARGIN_DIVISOR = 8;
+    // Once the region outgrows the held frame, whole frames are converted until
+    // the region has stopped changing for this long.
+    private static final long REGION_SETTLE_NANOS = 1_000_000_000L;
+
+    private static final VideoFrame[] NO_FRAMES = new VideoFrame[0];
+    // Upper bound on held frames whatever the history span, e.g. 100ms of a
+    // 150 fps source
+    static final int MAX_HISTORY = 16;
+
+    public final String sourceName;
+
+    // Guarded by this, so that close() never runs while a poll is in progress
+    protected boolean running = false;
+    private boolean closed = false;
+
+    // Recent frames, newest first, replaced rather than modified
+    private volatile VideoFrame[] history = NO_FRAMES;
+    private volatile long historySpan = 0;
+    // Normalized {x0, y0, x1, y1} bounds of the source region that rendering
+    // samples.  Null means the whole frame.
+    private volatile float[] sourceRegion = null;
+    // Whole frames are converted until System.nanoTime() passes this
+    private volatile long regionSettleNanos = System.nanoTime();
+    private volatile boolean reconvertRequested = false;
+
+    // Only touched by the polling task
+    protected long frameSequence = 0;
+    private byte[] rowBuffer = null;
+    // Tile checksums and converted {x0, y0, x1, y1} pixel bounds of the most
+    // recent convertFrame()
+    private int[] tileChecksums = null;
+    private int[] convertedRegion = null;
+
+    protected VideoInput(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    public void start() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            running = true;
+        }
+        schedule(0);
+    }
+
+    /**
+     * Stop polling and release the source, waiting for any poll in progress.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = false;
+            close();
+        }
+        history = NO_FRAMES;
+        LX.log("Input closed: " + sourceName + ". Total frames received: " + frameSequence);
+    }
+
+    /**
+     * The most recently decoded frame, or null if none has arrived yet.
+     */
+    public VideoFrame getFrame() {
+        VideoFrame[] frames = history;
+        return (frames.length > 0) ? frames[0] : null;
+    }
+
+    /**
+     * The newest frame with a timestamp at or before the given one.  If every
+     * held frame is newer the oldest is returned, null if none has arrived.
+     */
+    public VideoFrame getFrame(long timestamp) {
+        VideoFrame[] frames = history;
+        for (VideoFrame f : frames) {
+            if (f.timestamp <= timestamp) {
+                return f;
+            }
+        }
+        return (frames.length > 0) ? frames[frames.length - 1] : null;
+    }
+
+    /**
+     * How far back from the newest frame, in timestamp units, getFrame(long)
+     * needs to reach.  Frames are held until one at least this much older than
+     * the newest has arrived, so the count follows the source's frame rate.
+     * Zero holds only the newest frame.
+     */
+    public void setHistorySpan(long span) {
+        historySpan = Math.max(0, span);
+    }
+
+    /**
+     * Limit conversion of later frames to the given normalized {x0, y0, x1, y1}
+     * source region, null for the whole frame.  If the newest frame lacks pixels
+     * in the new region, whole frames are converted until the region settles
+     * and the source is asked to convert its current frame again.
+     */
+    public void setSourceRegion(float[] region) {
+        final long now = System.nanoTime();
+        VideoFrame frame = getFrame();
+        boolean outside = frame != null && !frame.containsRegion(regionBounds(region, frame.width, frame.height, 0));
+        boolean settling = now - regionSettleNanos < 0;
+        if (outside || (settling && !Arrays.equals(region, sourceRegion))) {
+            regionSettleNanos = now + REGION_SETTLE_NANOS;
+        }
+        if (outside) {
+            reconvertRequested = true;
+        }
+        sourceRegion = region;
+    }
+
+    /**
+     * Check for a new frame without blocking.  Returns the delay before the next
+     * poll, or a negative value to stop polling.  Called holding the lock on this
+     * and only while running.
+     */
+    protected abstract long poll();
+
+    /**
+     * Release the source.  Called holding the lock on this.
+     */
+    protected abstract void close();
+
+    /**
+     * Whether the source region grew beyond the newest frame since the last
+     * call.  Sources that can convert their current frame again, rather than
+     * waiting for the next one, should do so.
+     */
+    protected boolean takeReconvertRequest() {
+        if (!reconvertRequested)
+            return false;
+        reconvertRequested = false;
+        return true;
+    }
+
+    private void schedule(long delayMs) {
+        try {
+            if (delayMs <= 0) {
+                pool.execute(this::runPoll);
+            } else {
+                pool.schedule(this::runPoll, delayMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            LX.error(e, "Could not schedule capture for " + sourceName);
+        }
+    }
+
+    private void runPoll() {
+        long delayMs;
+        synchronized (this) {
+            if (!running)
+                return;
+            try {
+                delayMs = poll();
+            } catch (Throwable e) {
+                // The pool would swallow this and polling would silently stop
+                LX.error(e, "Capture stopped for " + sourceName);
+                delayMs = -1;
+            }
+            if (delayMs < 0) {
+                running = false;
+                return;
+            }
+        }
+        schedule(delayMs);
+    }
+
+    /**
+     * Convert 4 byte per pixel BGRA or BGRX data starting at offset into a new
+     * image.  Only the part of the source the current mapping can sample is
+     * converted, the rest of the image is left black.  Tile checksums and the
+     * converted bounds are kept for the next publishFrame().  Returns null if
+     * the data is invalid.
+     */
+    protected BufferedImage convertFrame(ByteBuffer frameData, int offset, int width, int height,
+                                         int stride, boolean hasAlpha) {
+        if (width <= 0 || height <= 0 || frameData == null)
+            return null;
+        if (stride < width * 4)
+            stride = width * 4;
+
+        BufferedImage image;
+        if (!hasAlpha) image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        else image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final int tileColumns = VideoFrame.tileCount(width);
+        final int[] checksums = new int[tileColumns * VideoFrame.tileCount(height)];
+        final int tileSize = 1 << VideoFrame.TILE_SHIFT;
+
+        final float[] region = (System.nanoTime() - regionSettleNanos < 0) ? null : sourceRegion;
+        final int[] bounds = regionBounds(region, width, height, tileSize);
+        final int x0 = bounds[0];
+        final int y0 = bounds[1];
+        final int x1 = bounds[2];
+        final int y1 = bounds[3];
+
+        int rowBytes = (x1 - x0 + 1) * 4;
+        if (rowBuffer == null || rowBuffer.length < rowBytes) {
+            rowBuffer = new byte[rowBytes];
+        }
+        final byte[] row = rowBuffer;
+
+        // Convert BGRX/BGRA to RGB/ARGB
+        for (int y = y0; y <= y1; y++) {
+            int rowOffset = offset + y * stride + x0 * 4;
+            if (rowOffset + rowBytes > frameData.limit())
+                break;
+            frameData.get(rowOffset, row, 0, rowBytes);
+
+            int pixelIndex = y * width + x0;
+            int tileRow = (y >> VideoFrame.TILE_SHIFT) * tileColumns;
+            int i = 0;
+            // One span per tile the row crosses, hashing the converted pixels
+            for (int x = x0; x <= x1; ) {
+                int spanEnd = Math.min(x1 + 1, ((x >> VideoFrame.TILE_SHIFT) + 1) * tileSize);
+                int tile = tileRow + (x >> VideoFrame.TILE_SHIFT);
+                int hash = checksums[tile];
+                for (; x < spanEnd; x++, i += 4) {
+                    int b = row[i] & 0xFF;
+                    int g = row[i + 1] & 0xFF;
+                    int r = row[i + 2] & 0xFF;
+                    int a = row[i + 3] & 0xFF;
+
+                    int argb;
+                    if (hasAlpha) {
+                        // BGRA format - include alpha channel
+                        argb = (a << 24) | (r << 16) | (g << 8) | b;
+                    } else {
+                        // BGRX format - ignore X channel, set alpha to opaque
+                        argb = (0xFF << 24) | (r << 16) | (g << 8) | b;
+                    }
+                    pixels[pixelIndex++] = argb;
+                    hash = (hash ^ argb) * 0x01000193;
+                }
+                checksums[tile] = hash;
+            }
+        }
+        tileChecksums = checksums;
+        convertedRegion = bounds;
+        return image;
+    }
+
+    /**
+     * Make a converted image the current frame.  A timestamp of zero or less
+     * means the source didn't provide one.
+     */
+    protected void publishFrame(BufferedImage image, long timestamp) {
+        if (timestamp <= 0 || timestamp == Long.MAX_VALUE) {
+            timestamp = System.currentTimeMillis() * VideoFrame.TICKS_PER_MS;
+        }
+        VideoFrame frame = new VideoFrame(image, ++frameSequence, System.nanoTime(), timestamp, tileChecksums,
+                convertedRegion);
+        VideoFrame[] previous = history;
+        final long oldest = timestamp - historySpan;
+        int keep = 0;
+        if (historySpan > 0) {
+            // Up to and including the first frame at or before the span
+            while (keep < previous.length && keep < MAX_HISTORY - 1) {
+                if (previous[keep++].timestamp <= oldest)
+                    break;
+            }
+        }
+        VideoFrame[] frames = new VideoFrame[keep + 1];
+        frames[0] = frame;
+        System.arraycopy(previous, 0, frames, 1, keep);
+        history = frames;
+    }
+
+    /**
+     * Inclusive {x0, y0, x1, y1} pixel bounds of a normalized region, or of the
+     * whole frame for null.  With a non-zero align the bounds are padded and
+     * aligned to it.
+     */
+    static int[] regionBounds(float[] region, int width, int height, int align) {
+        if (region == null) {
+            return new int[] { 0, 0, width - 1, height - 1 };
+        }
+        return new int[] {
+                regionStart(region[0], width, align),
+                regionStart(region[1], height, align),
+                regionEnd(region[2], width, align),
+                regionEnd(region[3], height, align)
+        };
+    }
+
+    private static int regionStart(float normalized, int size, int align) {
+        int pixel = (int) Math.floor(normalized * (size - 1));
+        if (align > 0) {
+            pixel -= align + size / REGION_MARGIN_DIVISOR;
+            pixel = Math.floorDiv(pixel, align) * align;
+        }
+        return Math.max(0, pixel);
+    }
+
+    private static int regionEnd(float normalized, int size, int align) {
+        // Always include the next pixel for bilinear sampling
+        int pixel = (int) Math.ceil(normalized * (size - 1)) + 1;
+        if (align > 0) {
+            pixel += align + size / REGION_MARGIN_DIVISOR;
+            pixel = (pixel / align + 1) * align - 1;
+        }
+        return Math.min(size - 1, pixel);
+    }
+}
@@ -0,0 +1,97 @@
+package xyz.theforks.ckndi;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PreviewRasterTest {
+
+    /**
+     * A side x side grid of points covering the uv square, point i colored i + 1.
+     */
+    static UVMap grid(int side) {
+        int n = side * side;
+        int[] index = new int[n];
+        float[] u = new float[n];
+        float[] v = new float[n];
+        for (int i = 0; i < n; i++) {
+            index[i] = i;
+            u[i] = (i % side + 0.5f) / side;
+            v[i] = (i / side + 0.5f) / side;
+        }
+        return new UVMap(index, u, v);
+    }
+
+    static int[] colors(int n) {
+        int[] colors = new int[n];
+        for (int i = 0; i < n; i++) {
+            colors[i] = 0xFF000000 | (i + 1);
+        }
+        return colors;
+    }
+
+    @Test
+    public void denseMapFillsImageWithNearestPoint() {
+        UVMap map = grid(10);
+        PreviewRaster raster = new PreviewRaster(map, 100, 60);
+        int[] pixels = new int[100 * 60];
+        raster.draw(colors(100), pixels);
+
+        for (int y = 0; y < 60; y++) {
+            for (int x = 0; x < 100; x++) {
+                int pixel = pixels[y * 100 + x];
+                assertNotEquals(0, pixel, "pixel " + x + "," + y);
+                int point = (pixel & 0xFFFFFF) - 1;
+                // The point drawn is the nearest one, ties aside
+                float px = x / 99f;
+                float py = 1f - y / 59f;
+                float d = dist(map, point, px, py, 99, 59);
+                for (int i = 0; i < map.size(); i++) {
+                    assertTrue(d <= dist(map, i, px, py, 99, 59) + 1e-3f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sparseMapLeavesEmptyAreasBlack() {
+        UVMap map = new UVMap(new int[] { 0 }, new float[] { 0.5f }, new float[] { 0.5f });
+        PreviewRaster raster = new PreviewRaster(map, 640, 360);
+        int[] pixels = new int[640 * 360];
+        raster.draw(colors(1), pixels);
+
+        assertEquals(0xFF000001, pixels[180 * 640 + 320]);
+        assertEquals(0xFF000001, pixels[180 * 640 + 320 + PreviewRaster.MAX_RADIUS - 2]);
+        assertEquals(0, pixels[0]);
+        assertEquals(0, pixels[180 * 640 + 320 + PreviewRaster.MAX_RADIUS + 2]);
+    }
+
+    @Test
+    public void vIncreasesUpwards() {
+        UVMap map = new UVMap(new int[] { 0, 1 }, new float[] { 0.5f, 0.5f }, new float[] { 0f, 1f });
+        PreviewRaster raster = new PreviewRaster(map, 10, 10);
+        int[] pixels = new int[10 * 10];
+        raster.draw(colors(2), pixels);
+
+        assertEquals(0xFF000002, pixels[5]);
+        assertEquals(0xFF000001, pixels[9 * 10 + 5]);
+    }
+
+    @Test
+    public void pointsBeyondColorsAreBlack() {
+        UVMap map = grid(2);
+        PreviewRaster raster = new PreviewRaster(map, 20, 20);
+        int[] pixels = new int[20 * 20];
+        raster.draw(colors(3), pixels);
+
+        // Point 3 is the top right cell
+        assertEquals(0, pixels[19]);
+        assertEquals(0xFF000001, pixels[19 * 20]);
+    }
+
+    private static float dist(UVMap map, int i, float u, float v, int w, int h) {
+        float dx = (map.u[i] - u) * w;
+        float dy = (map.v[i] - v) * h;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,151 @@
+package xyz.theforks.ckndi;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VideoInputTest {
+
+    /**
+     * An input that is never started, frames are published by the test.
+     */
+    static class TestInput extends VideoInput {
+        TestInput() {
+            super("test");
+        }
+
+        @Override
+        protected long poll() {
+            return -1;
+        }
+
+        @Override
+        protected void close() {
+        }
+
+        VideoFrame publish(long timestamp) {
+            publishFrame(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), timestamp);
+            return getFrame();
+        }
+
+        VideoFrame publishWhite(int width, int height) {
+            byte[] data = new byte[width * height * 4];
+            Arrays.fill(data, (byte) 0xFF);
+            publishFrame(convertFrame(ByteBuffer.wrap(data), 0, width, height, width * 4, false), 0);
+            return getFrame();
+        }
+    }
+
+    @Test
+    public void noFrames() {
+        TestInput input = new TestInput();
+        assertNull(input.getFrame());
+        assertNull(input.getFrame(1000));
+    }
+
+    @Test
+    public void picksNewestFrameAtOrBeforeTimestamp() {
+        TestInput input = new TestInput();
+        input.setHistorySpan(1000);
+        VideoFrame f100 = input.publish(100);
+        VideoFrame f200 = input.publish(200);
+        VideoFrame f300 = input.publish(300);
+
+        assertSame(f300, input.getFrame());
+        assertSame(f300, input.getFrame(5000));
+        assertSame(f300, input.getFrame(300));
+        assertSame(f200, input.getFrame(299));
+        assertSame(f200, input.getFrame(200));
+        assertSame(f100, input.getFrame(150));
+        // Everything held is newer, the oldest is the best there is
+        assertSame(f100, input.getFrame(50));
+    }
+
+    @Test
+    public void withoutSpanOnlyNewestIsHeld() {
+        TestInput input = new TestInput();
+        input.publish(100);
+        VideoFrame f200 = input.publish(200);
+        assertSame(f200, input.getFrame(150));
+    }
+
+    @Test
+    public void historyCoversSpan() {
+        TestInput input = new TestInput();
+        input.setHistorySpan(35);
+        VideoFrame[] frames = new VideoFrame[10];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = input.publish(1000 + 10 * i);
+        }
+        // Newest is 1090, every target back to 1055 must find its frame
+        assertSame(frames[9], input.getFrame(1090));
+        assertSame(frames[6], input.getFrame(1069));
+        assertSame(frames[5], input.getFrame(1055));
+        // Older frames have been dropped
+        assertSame(frames[5], input.getFrame(1020));
+    }
+
+    @Test
+    public void historyIsCapped() {
+        TestInput input = new TestInput();
+        input.setHistorySpan(Long.MAX_VALUE / 2);
+        VideoFrame first = input.publish(1000);
+        for (int i = 1; i < 2 * VideoInput.MAX_HISTORY; i++) {
+            input.publish(1000 + i);
+        }
+        VideoFrame oldest = input.getFrame(0);
+        assertNotSame(first, oldest);
+        assertEquals(VideoInput.MAX_HISTORY + 1, oldest.sequence);
+    }
+
+    @Test
+    public void missingTimestampUsesWallClock() {
+        TestInput input = new TestInput();
+        long before = System.currentTimeMillis() * VideoFrame.TICKS_PER_MS;
+        VideoFrame frame = input.publish(0);
+        long after = System.currentTimeMillis() * VideoFrame.TICKS_PER_MS;
+        assertTrue(frame.timestamp >= before && frame.timestamp <= after);
+    }
+
+    @Test
+    public void convertsPaddedRegion() {
+        TestInput input = new TestInput();
+        float[] region = { 0.4f, 0.4f, 0.6f, 0.6f };
+        input.setSourceRegion(region);
+        VideoFrame frame = input.publishWhite(640, 360);
+
+        assertTrue(frame.containsRegion(VideoInput.regionBounds(region, 640, 360, 0)));
+        assertTrue(frame.regionX0 > 0 && frame.regionX1 < 639);
+        assertTrue(frame.regionX0 <= 255 - 64 && frame.regionX1 >= 385 + 64);
+        assertEquals(0, frame.regionX0 % 32);
+        assertEquals(0xFFFFFFFF, frame.pixels[180 * 640 + 320]);
+        assertEquals(0, frame.pixels[180 * 640 + 5] & 0xFFFFFF);
+    }
+
+    @Test
+    public void smallRegionMoveStaysInHeldFrame() {
+        TestInput input = new TestInput();
+        input.setSourceRegion(new float[] { 0.4f, 0.4f, 0.6f, 0.6f });
+        input.publishWhite(640, 360);
+        input.setSourceRegion(new float[] { 0.42f, 0.4f, 0.62f, 0.6f });
+        assertFalse(input.takeReconvertRequest());
+    }
+
+    @Test
+    public void regionOutsideHeldFrameConvertsWholeFrames() {
+        TestInput input = new TestInput();
+        input.setSourceRegion(new float[] { 0.4f, 0.4f, 0.6f, 0.6f });
+        input.publishWhite(640, 360);
+        input.setSourceRegion(new float[] { 0f, 0f, 0.1f, 0.1f });
+        assertTrue(input.takeReconvertRequest());
+        assertFalse(input.takeReconvertRequest());
+
+        // Whole frames while the region is still moving
+        VideoFrame frame = input.publishWhite(640, 360);
+        assertTrue(frame.containsRegion(new int[] { 0, 0, 639, 359 }));
+    }
+}